@@ -0,0 +1,32 @@
+package at.petrak.roombas.gametest;
+
+import at.petrak.roombas.vm.VMReplayer;
+import at.petrak.roombas.vm.VMTrace;
+import net.minecraft.nbt.NbtIo;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Replays trace files saved by {@code /roombas trace} with no world around, and prints whether each one matched
+ * and how long it took.
+ * <p>
+ * Run with {@code ./gradlew replayTraces --args="<trace files>"}.
+ */
+public class ReplayTraces {
+    public static void main(String[] args) throws IOException {
+        for (var path : args) {
+            var trace = VMTrace.deserialize(NbtIo.readCompressed(new File(path)));
+
+            var checked = VMReplayer.replay(trace, true);
+            if (!checked.matched()) {
+                System.out.printf("%s: DIVERGED at event %d (after %d instructions)%n", path, checked.divergedAt(),
+                    checked.instructions());
+                continue;
+            }
+            var timed = VMReplayer.replay(trace, false);
+            System.out.printf("%s: ok, %d instructions in %d us (%d ns/instr)%n", path, timed.instructions(),
+                timed.nanos() / 1000, timed.nanos() / Math.max(timed.instructions(), 1));
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package at.petrak.roombas.gametest;
+
+import at.petrak.roombas.RoombasMod;
+import at.petrak.roombas.common.entity.EntityRoomba;
+import at.petrak.roombas.common.world.RoombaCoverage;
+import at.petrak.roombas.vm.Argument;
+import at.petrak.roombas.vm.Instruction;
+import at.petrak.roombas.vm.Opcode;
+import net.fabricmc.fabric.api.gametest.v1.FabricGameTest;
+import net.minecraft.core.BlockPos;
+import net.minecraft.gametest.framework.GameTest;
+import net.minecraft.gametest.framework.GameTestHelper;
+import net.minecraft.nbt.CompoundTag;
+import net.minecraft.nbt.NbtIo;
+import net.minecraft.world.entity.EntityType;
+import net.minecraft.world.entity.item.ItemEntity;
+import net.minecraft.world.item.Item;
+import net.minecraft.world.item.ItemStack;
+import net.minecraft.world.item.Items;
+import net.minecraft.world.level.block.Blocks;
+import net.minecraft.world.level.block.entity.ChestBlockEntity;
+import net.minecraft.world.phys.AABB;
+import net.minecraft.world.phys.Vec3;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.ref.Reference;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Benchmarks that need a real level. Run them with {@code ./gradlew runGametest}; timings go to the log.
+ */
+public class RoombaBenchmarks implements FabricGameTest {
+    // All stack to 64. However the seed splits them, N items of K kinds take at most N/64 + K stacks,
+    // and 1200/64 + 8 < 27, so everything fits in the roomba and then in the chest
+    private static final Item[] DROPS = {
+        Items.COBBLESTONE, Items.DIRT, Items.OAK_SAPLING, Items.STICK,
+        Items.ROTTEN_FLESH, Items.BONE, Items.STRING, Items.GUNPOWDER,
+    };
+    private static final int DROP_COUNT = 1200;
+    private static final int MAX_TICKS = 200;
+
+    /**
+     * A roomba drives down a corridor carpeted in item drops and dumps them into a chest at the end.
+     */
+    @GameTest(template = EMPTY_STRUCTURE)
+    public void denseDropField(GameTestHelper helper) {
+        int stacksNeeded = DROPS.length + DROP_COUNT / 64;
+        helper.assertTrue(stacksNeeded <= EntityRoomba.MAIN_INVENTORY_SIZE,
+            "the drop field can't fit in a roomba; " + stacksNeeded + " stacks");
+
+        for (int x = 0; x < 8; x++) {
+            for (int z = 0; z < 8; z++) {
+                helper.setBlock(x, 0, z, Blocks.STONE);
+            }
+        }
+        var chestPos = new BlockPos(3, 1, 7);
+        helper.setBlock(chestPos, Blocks.CHEST);
+
+        // Seeded so runs are comparable
+        var rand = new Random(1234);
+        for (int i = 0; i < DROP_COUNT; i++) {
+            var drop = helper.spawn(EntityType.ITEM, new Vec3(3.5, 1, 1 + rand.nextDouble() * 5.5));
+            drop.setItem(new ItemStack(DROPS[rand.nextInt(DROPS.length)]));
+        }
+
+        // Tick it ourselves so nothing else in the level ends up in the timing
+        var start = helper.absoluteVec(new Vec3(3.5, 1, 0.5));
+        var roomba = new EntityRoomba(helper.getLevel(), start.x, start.y, start.z);
+        roomba.setProgram(List.of(List.of(
+            new Instruction(Opcode.MOV, new Argument.Literal((short) 112), null),
+            new Instruction(Opcode.SLP, new Argument.Literal((short) 999), null)
+        )));
+
+        long nanos = 0;
+        int ticks = 0;
+        for (; ticks < MAX_TICKS; ticks++) {
+            var before = System.nanoTime();
+            roomba.tick();
+            nanos += System.nanoTime() - before;
+        }
+
+        int left = 0;
+        var area = new AABB(helper.absolutePos(BlockPos.ZERO), helper.absolutePos(new BlockPos(8, 3, 8)));
+        for (var drop : helper.getLevel().getEntitiesOfClass(ItemEntity.class, area, ItemEntity::isAlive)) {
+            left += drop.getItem().getCount();
+        }
+        var pickedUp = DROP_COUNT - left;
+
+        int deposited = 0;
+        if (helper.getBlockEntity(chestPos) instanceof ChestBlockEntity chest) {
+            for (int i = 0; i < chest.getContainerSize(); i++) {
+                deposited += chest.getItem(i).getCount();
+            }
+        }
+        RoombasMod.LOGGER.info("denseDropField: {} ticks in {} us ({} ns/tick), {} of {} drops picked up, {} deposited",
+            ticks, nanos / 1000, nanos / ticks, pickedUp, DROP_COUNT, deposited);
+
+        // Fast and wrong doesn't count
+        helper.assertTrue(pickedUp == DROP_COUNT, "only picked up " + pickedUp + " of " + DROP_COUNT + " drops");
+        helper.assertTrue(deposited == pickedUp, "only deposited " + deposited + " of " + pickedUp + " items");
+        helper.succeed();
+    }
+
+    /**
+     * Sweeps every cell of one floor in a thousand chunks (the worst case for a thousand layers), then reports how
+     * much heap the coverage map holds on to and how big it is saved.
+     */
+    @GameTest(template = EMPTY_STRUCTURE, batch = "roombas_coverage_memory")
+    public void coverageMemory(GameTestHelper helper) {
+        final int chunks = 1000;
+        final long now = 1_000_000;
+        var rand = new Random(1234);
+
+        var heapBefore = usedHeap();
+        var coverage = new RoombaCoverage();
+        for (int i = 0; i < chunks; i++) {
+            int cx = i % 32, cz = i / 32;
+            for (int x = 0; x < 16; x++) {
+                for (int z = 0; z < 16; z++) {
+                    var when = now - rand.nextInt(RoombaCoverage.MAX_AGE_TICKS);
+                    coverage.markSwept(new BlockPos(cx * 16 + x, 64, cz * 16 + z), when);
+                }
+            }
+        }
+        var heapAfter = usedHeap();
+        helper.assertTrue(coverage.layerCount() == chunks,
+            "expected " + chunks + " layers but got " + coverage.layerCount());
+        // Upstairs in the same chunk section is a different floor
+        helper.assertTrue(!coverage.sweptWithin(new BlockPos(3, 68, 5), now, RoombaCoverage.MAX_AGE_TICKS),
+            "sweeping one floor marked the floor above it");
+
+        var tag = coverage.save(new CompoundTag());
+        int rawBytes, compressedBytes;
+        try {
+            var raw = new ByteArrayOutputStream();
+            NbtIo.write(tag, new DataOutputStream(raw));
+            rawBytes = raw.size();
+            var compressed = new ByteArrayOutputStream();
+            NbtIo.writeCompressed(tag, compressed);
+            compressedBytes = compressed.size();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        // Keep it alive until we're done measuring
+        Reference.reachabilityFence(coverage);
+
+        RoombasMod.LOGGER.info("coverageMemory: {} layers retain ~{} KiB of heap; saved {} KiB raw, {} KiB compressed",
+            chunks, (heapAfter - heapBefore) / 1024, rawBytes / 1024, compressedBytes / 1024);
+
+        // Round-trips, and forgets things nobody can ask about any more
+        var loaded = RoombaCoverage.load(tag);
+        helper.assertTrue(loaded.layerCount() == chunks, "lost layers loading");
+        helper.assertTrue(loaded.sweptWithin(new BlockPos(3, 64, 5), now, RoombaCoverage.MAX_AGE_TICKS),
+            "cell not swept after loading");
+        helper.assertTrue(!loaded.sweptWithin(new BlockPos(3, 68, 5), now, RoombaCoverage.MAX_AGE_TICKS),
+            "floors got mixed up loading");
+        var later = now + 2L * RoombaCoverage.MAX_AGE_TICKS;
+        loaded.markSwept(new BlockPos(0, 64, 0), later);
+        loaded.save(new CompoundTag());
+        helper.assertTrue(loaded.layerCount() == 1,
+            "stale layers weren't pruned; " + loaded.layerCount() + " left");
+        helper.succeed();
+    }
+
+    private static long usedHeap() {
+        // Best-effort; run it a couple of times so the numbers settle
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+}
@@ -0,0 +1,118 @@
+package at.petrak.roombas.gametest;
+
+import at.petrak.roombas.common.entity.EntityRoomba;
+import at.petrak.roombas.common.world.RoombaServerLevel;
+import at.petrak.roombas.vm.Argument;
+import at.petrak.roombas.vm.Instruction;
+import at.petrak.roombas.vm.Opcode;
+import net.fabricmc.fabric.api.gametest.v1.FabricGameTest;
+import net.minecraft.gametest.framework.GameTest;
+import net.minecraft.gametest.framework.GameTestHelper;
+import net.minecraft.nbt.CompoundTag;
+import net.minecraft.world.phys.Vec3;
+
+import java.util.List;
+
+/**
+ * Checks that a roomba fast-forwarding through ticks it missed ends up exactly where one that was ticked the whole
+ * time would be.
+ * <p>
+ * The roombas are never added to the level, so the tests tick them by hand and nothing else touches them.
+ */
+public class RoombaCatchUpTests implements FabricGameTest {
+    // Pure register work with sleeps of a couple of lengths in between, so gaps end mid-sleep and mid-math
+    private static final List<List<Instruction>> PROGRAM = List.of(List.of(
+        instr(Opcode.ADD, 3),
+        instr(Opcode.SLP, 7),
+        instr(Opcode.MUL, 5),
+        instr(Opcode.DVM, 11),
+        instr(Opcode.SLP, 2)
+    ));
+    private static final int[] GAPS = {2, 3, 8, 41, 1000};
+
+    @GameTest(template = EMPTY_STRUCTURE, batch = "roombas_catch_up")
+    public void catchUpMatchesLive(GameTestHelper helper) {
+        for (var gap : GAPS) {
+            var live = newRoomba(helper);
+            var caughtUp = newRoomba(helper);
+            live.tick();
+            caughtUp.tick();
+
+            for (int i = 0; i < gap + 1; i++) {
+                live.tick();
+            }
+            pretendUnloaded(helper, caughtUp, gap);
+            caughtUp.tick();
+
+            assertCaughtUp(helper, live, caughtUp, "after missing " + gap + " ticks");
+        }
+        helper.succeed();
+    }
+
+    /**
+     * A roomba that can't get any of the level's budget has to owe the ticks it spends waiting, too.
+     */
+    @GameTest(template = EMPTY_STRUCTURE, batch = "roombas_catch_up_budget")
+    public void catchUpDoesntFallBehindWaitingForBudget(GameTestHelper helper) {
+        final int gap = 500;
+        var live = newRoomba(helper);
+        var caughtUp = newRoomba(helper);
+
+        helper.runAtTickTime(1, () -> {
+            live.tick();
+            caughtUp.tick();
+
+            for (int i = 0; i < gap + 1; i++) {
+                live.tick();
+            }
+            pretendUnloaded(helper, caughtUp, gap);
+            // Someone else got to this tick's budget first
+            var level = helper.getLevel();
+            RoombaServerLevel.of(level).roombas$getCatchUpBudget().take(level.getGameTime(), Integer.MAX_VALUE);
+            caughtUp.tick();
+        });
+        for (int t = 2; t <= 4; t++) {
+            helper.runAtTickTime(t, () -> {
+                live.tick();
+                caughtUp.tick();
+            });
+        }
+        helper.runAtTickTime(5, () -> {
+            assertCaughtUp(helper, live, caughtUp, "after waiting on the budget");
+            helper.succeed();
+        });
+    }
+
+    private static EntityRoomba newRoomba(GameTestHelper helper) {
+        var pos = helper.absoluteVec(new Vec3(1.5, 2, 1.5));
+        var roomba = new EntityRoomba(helper.getLevel(), pos.x, pos.y, pos.z);
+        roomba.setProgram(PROGRAM);
+        return roomba;
+    }
+
+    /**
+     * Make the roomba think it last ticked `gap` ticks before now, like it was saved and loaded back in later.
+     */
+    private static void pretendUnloaded(GameTestHelper helper, EntityRoomba roomba, int gap) {
+        var tag = roomba.saveWithoutId(new CompoundTag());
+        tag.putLong("lastTickTime", helper.getLevel().getGameTime() - gap - 1);
+        roomba.load(tag);
+    }
+
+    private static void assertCaughtUp(GameTestHelper helper, EntityRoomba live, EntityRoomba caughtUp,
+        String when) {
+        var liveTag = live.saveWithoutId(new CompoundTag());
+        var caughtUpTag = caughtUp.saveWithoutId(new CompoundTag());
+        helper.assertTrue(caughtUpTag.getLong("catchUpOwed") == 0,
+            "still owes " + caughtUpTag.getLong("catchUpOwed") + " ticks " + when);
+        // Registers, IP, card, mode and how long is left to sleep
+        var liveVM = liveTag.getCompound("vm");
+        var caughtUpVM = caughtUpTag.getCompound("vm");
+        helper.assertTrue(liveVM.equals(caughtUpVM),
+            "VMs differ " + when + ": live " + liveVM + ", caught up " + caughtUpVM);
+    }
+
+    private static Instruction instr(Opcode opcode, int arg) {
+        return new Instruction(opcode, new Argument.Literal((short) arg), null);
+    }
+}
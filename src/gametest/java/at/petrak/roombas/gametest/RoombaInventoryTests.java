@@ -0,0 +1,158 @@
+package at.petrak.roombas.gametest;
+
+import at.petrak.roombas.common.entity.RoombaInventory;
+import net.fabricmc.fabric.api.gametest.v1.FabricGameTest;
+import net.minecraft.core.Direction;
+import net.minecraft.gametest.framework.GameTest;
+import net.minecraft.gametest.framework.GameTestHelper;
+import net.minecraft.network.chat.Component;
+import net.minecraft.world.SimpleContainer;
+import net.minecraft.world.WorldlyContainer;
+import net.minecraft.world.item.Item;
+import net.minecraft.world.item.ItemStack;
+import net.minecraft.world.item.Items;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Checks on {@link RoombaInventory} by itself. These don't touch the level; they're gametests because item stacks
+ * need the game bootstrapped.
+ */
+public class RoombaInventoryTests implements FabricGameTest {
+    private static final int SIZE = 27;
+
+    @GameTest(template = EMPTY_STRUCTURE)
+    public void insertTopsUpThenFillsFreeSlots(GameTestHelper helper) {
+        var inv = new RoombaInventory(SIZE);
+        inv.insert(new ItemStack(Items.COBBLESTONE, 40));
+        inv.insert(new ItemStack(Items.COBBLESTONE, 40));
+        inv.insert(new ItemStack(Items.DIRT, 1));
+
+        assertStack(helper, inv.get(0), Items.COBBLESTONE, 64);
+        assertStack(helper, inv.get(1), Items.COBBLESTONE, 16);
+        assertStack(helper, inv.get(2), Items.DIRT, 1);
+        helper.succeed();
+    }
+
+    @GameTest(template = EMPTY_STRUCTURE)
+    public void insertKeepsDifferentTagsApart(GameTestHelper helper) {
+        var inv = new RoombaInventory(SIZE);
+        inv.insert(new ItemStack(Items.COBBLESTONE, 1));
+        var named = new ItemStack(Items.COBBLESTONE, 1);
+        named.setHoverName(Component.literal("rock"));
+        inv.insert(named);
+
+        assertStack(helper, inv.get(0), Items.COBBLESTONE, 1);
+        assertStack(helper, inv.get(1), Items.COBBLESTONE, 1);
+        helper.assertTrue(inv.get(1).hasCustomHoverName(), "named stack merged into a plain one");
+        helper.succeed();
+    }
+
+    @GameTest(template = EMPTY_STRUCTURE)
+    public void insertLeavesRemainderWhenFull(GameTestHelper helper) {
+        var inv = new RoombaInventory(SIZE);
+        for (int i = 0; i < SIZE; i++) {
+            inv.insert(new ItemStack(Items.COBBLESTONE, 64));
+        }
+        var extra = new ItemStack(Items.COBBLESTONE, 5);
+        inv.insert(extra);
+
+        helper.assertTrue(extra.getCount() == 5, "inserted into a full inventory");
+        helper.succeed();
+    }
+
+    @GameTest(template = EMPTY_STRUCTURE)
+    public void markDirtyPicksUpDirectChanges(GameTestHelper helper) {
+        var inv = new RoombaInventory(SIZE);
+        inv.insert(new ItemStack(Items.DIRT, 64));
+        // Poke the backing list directly, like a hopper would
+        inv.getStacks().set(5, new ItemStack(Items.COBBLESTONE, 1));
+        inv.get(0).shrink(64);
+        inv.markDirty();
+
+        inv.insert(new ItemStack(Items.COBBLESTONE, 10));
+        assertStack(helper, inv.get(5), Items.COBBLESTONE, 11);
+        inv.insert(new ItemStack(Items.DIRT, 3));
+        assertStack(helper, inv.get(0), Items.DIRT, 3);
+        helper.succeed();
+    }
+
+    @GameTest(template = EMPTY_STRUCTURE)
+    public void transferTopsUpThenFills(GameTestHelper helper) {
+        var inv = new RoombaInventory(SIZE);
+        inv.insert(new ItemStack(Items.COBBLESTONE, 10));
+        inv.insert(new ItemStack(Items.DIRT, 5));
+        var target = new SimpleContainer(3);
+        target.setItem(0, new ItemStack(Items.COBBLESTONE, 60));
+
+        var moved = inv.transferTo(target, null);
+
+        helper.assertTrue(moved == 15, "moved " + moved + " items, not 15");
+        assertStack(helper, target.getItem(0), Items.COBBLESTONE, 64);
+        assertStack(helper, target.getItem(1), Items.COBBLESTONE, 6);
+        assertStack(helper, target.getItem(2), Items.DIRT, 5);
+        helper.assertTrue(inv.isEmpty(), "inventory not empty after transfer");
+        helper.succeed();
+    }
+
+    @GameTest(template = EMPTY_STRUCTURE)
+    public void transferRespectsCanPlaceItem(GameTestHelper helper) {
+        var inv = new RoombaInventory(SIZE);
+        inv.insert(new ItemStack(Items.COBBLESTONE, 10));
+        inv.insert(new ItemStack(Items.DIRT, 5));
+        var target = new SimpleContainer(3) {
+            @Override
+            public boolean canPlaceItem(int slot, ItemStack stack) {
+                return stack.is(Items.DIRT);
+            }
+        };
+
+        var moved = inv.transferTo(target, null);
+
+        helper.assertTrue(moved == 5, "moved " + moved + " items, not 5");
+        assertStack(helper, target.getItem(0), Items.DIRT, 5);
+        helper.assertTrue(target.getItem(1).isEmpty(), "cobblestone got into a dirt-only container");
+        assertStack(helper, inv.get(0), Items.COBBLESTONE, 10);
+        helper.succeed();
+    }
+
+    @GameTest(template = EMPTY_STRUCTURE)
+    public void transferRespectsSides(GameTestHelper helper) {
+        var inv = new RoombaInventory(SIZE);
+        inv.insert(new ItemStack(Items.COBBLESTONE, 10));
+        var target = new SidedContainer();
+
+        var moved = inv.transferTo(target, Direction.NORTH);
+
+        helper.assertTrue(moved == 10, "moved " + moved + " items, not 10");
+        helper.assertTrue(target.getItem(0).isEmpty(), "put items in the top-only slot from the side");
+        assertStack(helper, target.getItem(1), Items.COBBLESTONE, 10);
+        helper.succeed();
+    }
+
+    private static void assertStack(GameTestHelper helper, ItemStack stack, Item item, int count) {
+        helper.assertTrue(stack.is(item) && stack.getCount() == count,
+            "expected " + count + " " + item + " but got " + stack);
+    }
+
+    // Slot 0 is only reachable from the top, slot 1 from everywhere else
+    private static class SidedContainer extends SimpleContainer implements WorldlyContainer {
+        SidedContainer() {
+            super(2);
+        }
+
+        @Override
+        public int[] getSlotsForFace(Direction side) {
+            return side == Direction.UP ? new int[]{0} : new int[]{1};
+        }
+
+        @Override
+        public boolean canPlaceItemThroughFace(int slot, ItemStack stack, @Nullable Direction side) {
+            return true;
+        }
+
+        @Override
+        public boolean canTakeItemThroughFace(int slot, ItemStack stack, Direction side) {
+            return true;
+        }
+    }
+}
@@ -0,0 +1,247 @@
+package at.petrak.roombas.gametest;
+
+import at.petrak.roombas.RoombasMod;
+import at.petrak.roombas.common.entity.EntityRoomba;
+import at.petrak.roombas.common.lib.ModEntities;
+import at.petrak.roombas.common.lib.ModItems;
+import at.petrak.roombas.common.world.RoombaCoverage;
+import at.petrak.roombas.vm.Argument;
+import at.petrak.roombas.vm.ConditionalFlag;
+import at.petrak.roombas.vm.Instruction;
+import at.petrak.roombas.vm.Opcode;
+import at.petrak.roombas.vm.Register;
+import net.fabricmc.fabric.api.event.lifecycle.v1.ServerTickEvents;
+import net.fabricmc.fabric.api.gametest.v1.FabricGameTest;
+import net.minecraft.gametest.framework.GameTestGenerator;
+import net.minecraft.gametest.framework.GameTestHelper;
+import net.minecraft.gametest.framework.TestFunction;
+import net.minecraft.nbt.CompoundTag;
+import net.minecraft.server.level.ServerLevel;
+import net.minecraft.world.item.ItemStack;
+import net.minecraft.world.level.block.Blocks;
+import net.minecraft.world.phys.Vec3;
+import org.jetbrains.annotations.Nullable;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Spawns fleets of roombas running different kinds of programs on a flat floor, and logs how long the level takes
+ * to tick, how much the server thread allocates, and how long saving takes.
+ * <p>
+ * Roombas spawn in the middle of the floor with enough margin that nobody can drive off the edge before the test
+ * ends, so the sweep mix measures open-floor driving and turning, not falling or bumping into walls.
+ * Saving is timed three ways: serializing just the roombas, serializing the coverage map, and a full flushing
+ * save of the level (chunks, entities and saved data, all the way to disk).
+ * <p>
+ * Run with {@code ./gradlew runGametest}. Each fleet gets its own batch so they don't skew each other's numbers.
+ * The floor is left behind afterwards; the gametest world is thrown away anyway.
+ */
+public class RoombaLoadTest implements FabricGameTest {
+    private static final int[] FLEET_SIZES = {100, 1000, 10000};
+    private static final int WARMUP_TICKS = 40;
+    private static final int MEASURE_TICKS = 200;
+    // Side length of the square roombas spawn in, in blocks
+    private static final int SPAWN_SIZE = 48;
+    // Furthest anyone can drive in the whole test, plus a block to stand on
+    private static final int MARGIN =
+        (int) Math.ceil((WARMUP_TICKS + MEASURE_TICKS) * EntityRoomba.MOVEMENT_PER_TICK) + 1;
+    private static final int FLOOR_SIZE = SPAWN_SIZE + 2 * MARGIN;
+
+    // The world tick currently being timed, if any. Gametests run on the server thread, so no locking
+    private static @Nullable Sample sample = null;
+
+    static {
+        ServerTickEvents.START_WORLD_TICK.register(level -> {
+            if (sample != null && sample.level == level) {
+                sample.startTick();
+            }
+        });
+        ServerTickEvents.END_WORLD_TICK.register(level -> {
+            if (sample != null && sample.level == level) {
+                sample.endTick();
+            }
+        });
+    }
+
+    /**
+     * How many of each kind of program a fleet runs, as relative weights.
+     */
+    public record Mix(String name, int sweep, int arithmetic, int sleepy, int peripheral) {
+        List<List<Instruction>> pick(Random rand) {
+            var roll = rand.nextInt(this.sweep + this.arithmetic + this.sleepy + this.peripheral);
+            if ((roll -= this.sweep) < 0) {
+                return SWEEP;
+            } else if ((roll -= this.arithmetic) < 0) {
+                return ARITHMETIC;
+            } else if (roll - this.sleepy < 0) {
+                return SLEEPY;
+            } else {
+                return PERIPHERAL;
+            }
+        }
+    }
+
+    public static final List<Mix> MIXES = List.of(
+        new Mix("even", 1, 1, 1, 1),
+        new Mix("sweep", 1, 0, 0, 0),
+        new Mix("arithmetic", 0, 1, 0, 0),
+        new Mix("sleepy", 0, 0, 1, 0),
+        new Mix("peripheral", 0, 0, 0, 1)
+    );
+
+    // The example from the README
+    private static final List<List<Instruction>> SWEEP = List.of(List.of(
+        instr(Opcode.LDA, 16),
+        instr(Opcode.MOV, 240),
+        instr(Opcode.ROT, 90),
+        instr(Opcode.MOV, 16),
+        instr(Opcode.ROT, 90),
+        instr(Opcode.MOV, 240),
+        instr(Opcode.SUB, 1),
+        instr(Opcode.ROT, -90, ConditionalFlag.POS),
+        instr(Opcode.MOV, 16, ConditionalFlag.POS),
+        instr(Opcode.ROT, -90, ConditionalFlag.POS),
+        instr(Opcode.JMP, 1, ConditionalFlag.POS),
+        instr(Opcode.MOV, 16),
+        instr(Opcode.ROT, 90),
+        instr(Opcode.MOV, 256),
+        instr(Opcode.ROT, 90)
+    ));
+    private static final List<List<Instruction>> ARITHMETIC = List.of(List.of(
+        instr(Opcode.ADD, 7),
+        instr(Opcode.MUL, 3),
+        instr(Opcode.DVM, 11),
+        new Instruction(Opcode.RLC, new Argument.Register(Register.B), null)
+    ));
+    private static final List<List<Instruction>> SLEEPY = List.of(List.of(
+        instr(Opcode.SLP, 40),
+        instr(Opcode.PHL, 0)
+    ));
+    private static final List<List<Instruction>> PERIPHERAL = List.of(List.of(
+        instr(Opcode.LDA, 30),
+        new Instruction(Opcode.RLD, new Argument.Register(Register.A), null),
+        instr(Opcode.PHL, 0)
+    ));
+
+    @GameTestGenerator
+    public List<TestFunction> fleets() {
+        var out = new ArrayList<TestFunction>();
+        for (var size : FLEET_SIZES) {
+            for (var mix : MIXES) {
+                var name = "roomba_load_" + mix.name() + "_" + size;
+                out.add(new TestFunction(name, name, EMPTY_STRUCTURE, WARMUP_TICKS + MEASURE_TICKS + 20, 0, true,
+                    helper -> runFleet(helper, size, mix)));
+            }
+        }
+        return out;
+    }
+
+    private static void runFleet(GameTestHelper helper, int size, Mix mix) {
+        for (int x = 0; x < FLOOR_SIZE; x++) {
+            for (int z = 0; z < FLOOR_SIZE; z++) {
+                helper.setBlock(x, 0, z, Blocks.STONE);
+            }
+        }
+
+        // Seeded so runs are comparable
+        var rand = new Random(size * 31L + mix.name().hashCode());
+        var roombas = new ArrayList<EntityRoomba>(size);
+        for (int i = 0; i < size; i++) {
+            var pos = new Vec3(MARGIN + 0.5 + rand.nextInt(SPAWN_SIZE), 1, MARGIN + 0.5 + rand.nextInt(SPAWN_SIZE));
+            var roomba = helper.spawn(ModEntities.ROOMBA, pos);
+            roomba.setYRot(rand.nextInt(4) * 90f);
+            roomba.setPeripheral(0, new ItemStack(ModItems.COVERAGE_SENSOR));
+            roomba.setProgram(mix.pick(rand));
+            roombas.add(roomba);
+        }
+
+        helper.runAtTickTime(WARMUP_TICKS, () -> sample = new Sample(helper.getLevel()));
+        helper.runAtTickTime(WARMUP_TICKS + MEASURE_TICKS, () -> {
+            var done = sample;
+            sample = null;
+
+            var level = helper.getLevel();
+            var serializeStart = System.nanoTime();
+            for (var roomba : roombas) {
+                roomba.saveWithoutId(new CompoundTag());
+            }
+            var serializeNanos = System.nanoTime() - serializeStart;
+
+            var coverageStart = System.nanoTime();
+            RoombaCoverage.get(level).save(new CompoundTag());
+            var coverageNanos = System.nanoTime() - coverageStart;
+
+            var levelSaveStart = System.nanoTime();
+            level.save(null, true, false);
+            var levelSaveNanos = System.nanoTime() - levelSaveStart;
+
+            var times = Arrays.copyOf(done.tickNanos, done.ticks);
+            Arrays.sort(times);
+            RoombasMod.LOGGER.info(
+                "{} x{}: tick p50 {} ms, p90 {} ms, p99 {} ms, max {} ms; {} KiB allocated/tick; "
+                    + "roomba serialize {} ms, coverage serialize {} ms, level save {} ms",
+                mix.name(), size,
+                millis(percentile(times, 0.5)), millis(percentile(times, 0.9)), millis(percentile(times, 0.99)),
+                millis(times.length == 0 ? 0 : times[times.length - 1]),
+                done.ticks == 0 ? 0 : done.allocatedBytes / done.ticks / 1024,
+                millis(serializeNanos), millis(coverageNanos), millis(levelSaveNanos));
+
+            for (var roomba : roombas) {
+                roomba.discard();
+            }
+            helper.succeed();
+        });
+    }
+
+    private static Instruction instr(Opcode opcode, int arg) {
+        return instr(opcode, arg, null);
+    }
+
+    private static Instruction instr(Opcode opcode, int arg, @Nullable ConditionalFlag flag) {
+        return new Instruction(opcode, new Argument.Literal((short) arg), flag);
+    }
+
+    private static long percentile(long[] sorted, double p) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        return sorted[Math.min((int) (sorted.length * p), sorted.length - 1)];
+    }
+
+    private static String millis(long nanos) {
+        return String.format("%.3f", nanos / 1_000_000d);
+    }
+
+    private static class Sample {
+        private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+        final ServerLevel level;
+        final long[] tickNanos = new long[MEASURE_TICKS + 1];
+        int ticks = 0;
+        long allocatedBytes = 0;
+
+        private long tickStart;
+        private long allocStart;
+
+        Sample(ServerLevel level) {
+            this.level = level;
+        }
+
+        void startTick() {
+            this.tickStart = System.nanoTime();
+            this.allocStart = THREADS.getCurrentThreadAllocatedBytes();
+        }
+
+        void endTick() {
+            if (this.ticks < this.tickNanos.length && this.tickStart != 0) {
+                this.tickNanos[this.ticks++] = System.nanoTime() - this.tickStart;
+                this.allocatedBytes += THREADS.getCurrentThreadAllocatedBytes() - this.allocStart;
+            }
+        }
+    }
+}
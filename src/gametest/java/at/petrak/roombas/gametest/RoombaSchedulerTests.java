@@ -0,0 +1,92 @@
+package at.petrak.roombas.gametest;
+
+import at.petrak.roombas.common.entity.EntityRoomba;
+import at.petrak.roombas.common.lib.ModItems;
+import at.petrak.roombas.vm.Argument;
+import at.petrak.roombas.vm.Instruction;
+import at.petrak.roombas.vm.Opcode;
+import at.petrak.roombas.vm.RoombaVM;
+import net.fabricmc.fabric.api.gametest.v1.FabricGameTest;
+import net.minecraft.gametest.framework.GameTest;
+import net.minecraft.gametest.framework.GameTestHelper;
+import net.minecraft.nbt.CompoundTag;
+import net.minecraft.world.item.ItemStack;
+import net.minecraft.world.phys.Vec3;
+
+import java.util.List;
+
+/**
+ * Checks that batched PHLs wait for the level's scheduler and pick up at the right place once it flushes.
+ * <p>
+ * The roomba is never added to the level, so it only ticks when the test says so; the level still flushes the
+ * scheduler at the end of every tick. The coverage sensor is batched and puts 0 in `D` when nothing was swept.
+ */
+public class RoombaSchedulerTests implements FabricGameTest {
+    private static final List<List<Instruction>> PROGRAM = List.of(List.of(
+        instr(Opcode.PHL, 0),
+        instr(Opcode.LDA, 7)
+    ));
+    // Something the sensor would never answer
+    private static final short UNTOUCHED = 42;
+
+    @GameTest(template = EMPTY_STRUCTURE)
+    public void batchedPhlResumesAfterFlush(GameTestHelper helper) {
+        var roomba = newRoomba(helper, RoombaVM.MODE_EXECUTING.toString());
+        checkBatchedPhl(helper, roomba);
+    }
+
+    /**
+     * A roomba saved while waiting on the scheduler isn't in its queue any more once it's loaded, so it has to
+     * run the PHL again.
+     */
+    @GameTest(template = EMPTY_STRUCTURE)
+    public void orphanedWaitRerunsPhl(GameTestHelper helper) {
+        var roomba = newRoomba(helper, RoombaVM.MODE_PERIPHERAL_WAIT.toString());
+        checkBatchedPhl(helper, roomba);
+    }
+
+    private static void checkBatchedPhl(GameTestHelper helper, EntityRoomba roomba) {
+        helper.runAtTickTime(1, () -> {
+            roomba.tick();
+            var vm = vmTag(roomba);
+            helper.assertTrue(vm.getString("mode").equals(RoombaVM.MODE_PERIPHERAL_WAIT.toString()),
+                "not waiting on the scheduler; mode is " + vm.getString("mode"));
+            helper.assertTrue(vm.getByte("ip") == 0, "IP moved off the PHL before it ran: " + vm.getByte("ip"));
+            helper.assertTrue(vm.getCompound("registers").getShort("D") == UNTOUCHED,
+                "PHL ran before the flush");
+        });
+        // At least one end of tick has gone by, whichever way round the level and the test tick
+        helper.runAtTickTime(3, () -> {
+            var vm = vmTag(roomba);
+            helper.assertTrue(vm.getString("mode").equals(RoombaVM.MODE_EXECUTING.toString()),
+                "still not executing after the flush; mode is " + vm.getString("mode"));
+            helper.assertTrue(vm.getByte("ip") == 1, "expected IP 1 after the flush, got " + vm.getByte("ip"));
+            helper.assertTrue(vm.getCompound("registers").getShort("D") == 0,
+                "sensor didn't answer; D is " + vm.getCompound("registers").getShort("D"));
+            helper.succeed();
+        });
+    }
+
+    private static EntityRoomba newRoomba(GameTestHelper helper, String mode) {
+        var pos = helper.absoluteVec(new Vec3(1.5, 2, 1.5));
+        var roomba = new EntityRoomba(helper.getLevel(), pos.x, pos.y, pos.z);
+        roomba.setPeripheral(0, new ItemStack(ModItems.COVERAGE_SENSOR));
+        roomba.setProgram(PROGRAM);
+
+        // Poke the state in like it was loaded from disk
+        var tag = roomba.saveWithoutId(new CompoundTag());
+        var vm = tag.getCompound("vm");
+        vm.putString("mode", mode);
+        vm.getCompound("registers").putShort("D", UNTOUCHED);
+        roomba.load(tag);
+        return roomba;
+    }
+
+    private static CompoundTag vmTag(EntityRoomba roomba) {
+        return roomba.saveWithoutId(new CompoundTag()).getCompound("vm");
+    }
+
+    private static Instruction instr(Opcode opcode, int arg) {
+        return new Instruction(opcode, new Argument.Literal((short) arg), null);
+    }
+}
@@ -0,0 +1,92 @@
+package at.petrak.roombas.gametest;
+
+import at.petrak.roombas.common.lib.ModEntities;
+import at.petrak.roombas.common.lib.ModItems;
+import at.petrak.roombas.vm.Argument;
+import at.petrak.roombas.vm.Instruction;
+import at.petrak.roombas.vm.Opcode;
+import at.petrak.roombas.vm.RoombaVM;
+import at.petrak.roombas.vm.VMReplayer;
+import at.petrak.roombas.vm.VMTrace;
+import net.fabricmc.fabric.api.gametest.v1.FabricGameTest;
+import net.minecraft.gametest.framework.GameTest;
+import net.minecraft.gametest.framework.GameTestHelper;
+import net.minecraft.nbt.CompoundTag;
+import net.minecraft.world.item.ItemStack;
+import net.minecraft.world.level.block.Blocks;
+import net.minecraft.world.phys.Vec3;
+
+import java.util.List;
+
+/**
+ * Records a roomba going about its business in a real level, then checks the trace replays without one.
+ */
+public class RoombaTraceTests implements FabricGameTest {
+    // Batched PHLs, sleeps, and a lap of one-block moves and right turns, so it stays on the floor
+    private static final List<List<Instruction>> PROGRAM = List.of(List.of(
+        instr(Opcode.PHL, 0),
+        instr(Opcode.SLP, 5),
+        instr(Opcode.MOV, 16),
+        instr(Opcode.ADD, 1),
+        instr(Opcode.ROT, 90),
+        instr(Opcode.PHL, 0),
+        instr(Opcode.SLP, 3)
+    ));
+    private static final int RECORD_TICKS = 100;
+
+    @GameTest(template = EMPTY_STRUCTURE, timeoutTicks = RECORD_TICKS + 20)
+    public void replayMatchesRecording(GameTestHelper helper) {
+        for (int x = 0; x < 5; x++) {
+            for (int z = 0; z < 5; z++) {
+                helper.setBlock(x, 0, z, Blocks.STONE);
+            }
+        }
+
+        var roomba = helper.spawn(ModEntities.ROOMBA, new Vec3(2.5, 1, 2.5));
+        roomba.setPeripheral(0, new ItemStack(ModItems.COVERAGE_SENSOR));
+        roomba.setProgram(PROGRAM);
+        // Start out like we got saved mid-PHL, so the orphaned wait ends up in the trace too
+        var tag = roomba.saveWithoutId(new CompoundTag());
+        tag.getCompound("vm").putString("mode", RoombaVM.MODE_PERIPHERAL_WAIT.toString());
+        roomba.load(tag);
+        helper.assertTrue(roomba.startRecording(Integer.MAX_VALUE), "roomba didn't start recording");
+
+        helper.runAtTickTime(RECORD_TICKS, () -> {
+            var trace = roomba.stopRecording();
+            helper.assertTrue(trace != null, "nothing was recorded");
+            assertHas(helper, trace, VMTrace.Executed.class);
+            assertHas(helper, trace, VMTrace.Idle.class);
+            assertHas(helper, trace, VMTrace.External.class);
+            assertHas(helper, trace, VMTrace.PeripheralCall.class);
+
+            var executed = (int) trace.events().stream().filter(it -> it instanceof VMTrace.Executed).count();
+            assertReplays(helper, trace, executed, "straight from the recorder");
+
+            // Saved to disk and read back
+            var saved = trace.serialize();
+            var loaded = VMTrace.deserialize(saved);
+            helper.assertTrue(loaded.serialize().equals(saved), "trace changed going through NBT");
+            assertReplays(helper, loaded, executed, "after going through NBT");
+
+            roomba.discard();
+            helper.succeed();
+        });
+    }
+
+    private static void assertReplays(GameTestHelper helper, VMTrace trace, int executed, String when) {
+        var result = VMReplayer.replay(trace, true);
+        helper.assertTrue(result.matched(), "replay " + when + " diverged at event " + result.divergedAt()
+            + ": " + (result.matched() ? null : trace.events().get(result.divergedAt())));
+        helper.assertTrue(result.instructions() == executed,
+            "replay " + when + " ran " + result.instructions() + " instructions, but " + executed + " were recorded");
+    }
+
+    private static void assertHas(GameTestHelper helper, VMTrace trace, Class<? extends VMTrace.Event> type) {
+        helper.assertTrue(trace.events().stream().anyMatch(type::isInstance),
+            "no " + type.getSimpleName() + " events in the trace");
+    }
+
+    private static Instruction instr(Opcode opcode, int arg) {
+        return new Instruction(opcode, new Argument.Literal((short) arg), null);
+    }
+}
@@ -1,8 +1,14 @@
 package at.petrak.roombas;
 
 import at.petrak.roombas.api.RoombasModAPI;
+import at.petrak.roombas.common.lib.ModCommands;
+import at.petrak.roombas.common.lib.ModEntities;
+import at.petrak.roombas.common.lib.ModItems;
+import at.petrak.roombas.common.world.RoombaServerLevel;
 import at.petrak.roombas.vm.Peripheral;
 import net.fabricmc.api.ModInitializer;
+import net.fabricmc.fabric.api.command.v2.CommandRegistrationCallback;
+import net.fabricmc.fabric.api.event.lifecycle.v1.ServerTickEvents;
 import net.fabricmc.fabric.api.lookup.v1.item.ItemApiLookup;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -20,6 +26,13 @@ public class RoombasMod implements ModInitializer {
 
 	@Override
 	public void onInitialize() {
-		PERIPHERALS.registerSelf();
+		ModEntities.init();
+		ModItems.init();
+		PERIPHERALS.registerSelf(ModItems.COVERAGE_SENSOR);
+
+		ServerTickEvents.END_WORLD_TICK.register(level ->
+			RoombaServerLevel.of(level).roombas$getPeripheralScheduler().flush());
+		CommandRegistrationCallback.EVENT.register((dispatcher, registryAccess, environment) ->
+			ModCommands.register(dispatcher));
 	}
 }
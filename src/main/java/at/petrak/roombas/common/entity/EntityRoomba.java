@@ -2,28 +2,50 @@ package at.petrak.roombas.common.entity;
 
 import at.petrak.roombas.RoombasMod;
 import at.petrak.roombas.common.lib.ModEntities;
+import at.petrak.roombas.common.world.OccupancyCache;
+import at.petrak.roombas.common.world.CatchUpBudget;
+import at.petrak.roombas.common.world.RoombaCoverage;
+import at.petrak.roombas.common.world.RoombaServerLevel;
+import at.petrak.roombas.vm.Instruction;
 import at.petrak.roombas.vm.Peripheral;
+import at.petrak.roombas.vm.PeripheralScheduler;
+import at.petrak.roombas.vm.Register;
 import at.petrak.roombas.vm.RoombaVM;
+import at.petrak.roombas.vm.VMRecorder;
+import at.petrak.roombas.vm.VMReplayer;
+import at.petrak.roombas.vm.VMTrace;
+import net.minecraft.Util;
+import net.minecraft.core.BlockPos;
+import net.minecraft.core.Direction;
 import net.minecraft.core.NonNullList;
 import net.minecraft.nbt.CompoundTag;
 import net.minecraft.nbt.ListTag;
+import net.minecraft.nbt.NbtIo;
 import net.minecraft.nbt.Tag;
 import net.minecraft.network.protocol.Packet;
 import net.minecraft.resources.ResourceLocation;
+import net.minecraft.server.level.ServerLevel;
 import net.minecraft.util.Mth;
 import net.minecraft.world.ContainerHelper;
 import net.minecraft.world.entity.Entity;
 import net.minecraft.world.entity.EntityType;
 import net.minecraft.world.entity.MoverType;
+import net.minecraft.world.entity.item.ItemEntity;
 import net.minecraft.world.entity.player.Inventory;
 import net.minecraft.world.entity.player.Player;
 import net.minecraft.world.entity.vehicle.ContainerEntity;
 import net.minecraft.world.inventory.AbstractContainerMenu;
 import net.minecraft.world.item.ItemStack;
 import net.minecraft.world.level.Level;
+import net.minecraft.world.level.block.entity.HopperBlockEntity;
+import net.minecraft.world.level.storage.LevelResource;
 import net.minecraft.world.phys.Vec3;
 import org.jetbrains.annotations.Nullable;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+
 import static at.petrak.roombas.api.RoombasModAPI.modLoc;
 
 public class EntityRoomba extends Entity implements ContainerEntity {
@@ -39,8 +61,11 @@ public class EntityRoomba extends Entity implements ContainerEntity {
     // In radians per tick
     public static final double TURNING_PER_TICK = 6.28d / 20d;
 
+    // Most ticks we'll catch up on after being unloaded; about a day.
+    public static final long MAX_CATCH_UP_TICKS = 24000;
+
     // An inventory like a chest
-    private NonNullList<ItemStack> inventory;
+    private final RoombaInventory inventory;
     // 16 punchcard slots; the first must be filled to execute
     private NonNullList<ItemStack> punchcards;
     // 4 peripheral slots, must insert things with the right CC on them
@@ -48,10 +73,14 @@ public class EntityRoomba extends Entity implements ContainerEntity {
 
     // this is null when not executing
     private @Nullable RoombaVMImpl vm;
+    // Game time of the last tick we ran, so we know how long we've been asleep. -1 if we never have.
+    private long lastTickTime = -1;
+    // Ticks we still have to fast-forward through before running normally again
+    private long catchUpOwed = 0;
 
     public EntityRoomba(EntityType<?> type, Level level) {
         super(type, level);
-        this.inventory = NonNullList.withSize(MAIN_INVENTORY_SIZE, ItemStack.EMPTY);
+        this.inventory = new RoombaInventory(MAIN_INVENTORY_SIZE);
         this.punchcards = NonNullList.withSize(RoombaVM.MAX_CARD_COUNT, ItemStack.EMPTY);
         this.peripherals = NonNullList.withSize(RoombaVM.MAX_PERIPHERAL_COUNT, ItemStack.EMPTY);
 
@@ -66,15 +95,49 @@ public class EntityRoomba extends Entity implements ContainerEntity {
         this.setPos(x, y, z);
     }
 
-    private double facingRadians() {
-        var look = this.getLookAngle();
-        return Mth.atan2(look.z, look.x);
+    /**
+     * Throw out whatever the roomba was doing and start running this program from the top.
+     */
+    public void setProgram(List<List<Instruction>> cards) {
+        this.vm = new RoombaVMImpl();
+        this.vm.instructions.addAll(cards);
+        for (var regi : Register.values()) {
+            this.vm.registers.put(regi, (short) 0);
+        }
+        this.lastTickTime = -1;
+        this.catchUpOwed = 0;
+    }
+
+    /**
+     * Put a peripheral item in the given slot, replacing whatever was there.
+     */
+    public void setPeripheral(int slot, ItemStack stack) {
+        this.peripherals.set(slot, stack);
     }
 
     @Override
     public void tick() {
         super.tick();
 
+        if (this.vm != null && this.level instanceof ServerLevel slevel) {
+            var now = slevel.getGameTime();
+            if (this.lastTickTime >= 0 && now - this.lastTickTime > 1) {
+                // We weren't ticked for a while (unloaded or lazy chunk); play the VM forwards
+                this.catchUpOwed = Math.min(this.catchUpOwed + now - this.lastTickTime - 1, MAX_CATCH_UP_TICKS);
+            }
+            this.lastTickTime = now;
+
+            if (this.catchUpOwed > 0) {
+                this.catchUp(slevel);
+                if (this.catchUpOwed > 0) {
+                    // Ran out of the level's budget; keep going next tick, and owe this tick too so we don't
+                    // fall behind for good
+                    this.catchUpOwed = Math.min(this.catchUpOwed + 1, MAX_CATCH_UP_TICKS);
+                    return;
+                }
+            }
+        }
+
         if (this.vm != null) {
             // VM modes
             ResourceLocation mode = this.vm.mode;
@@ -84,8 +147,9 @@ public class EntityRoomba extends Entity implements ContainerEntity {
                 this.vm.modeData.putDouble("startZ", this.getZ());
             } else if (mode.equals(RoombaVM.MODE_TURN)) {
                 this.vm.mode = MODE_TURNING;
-                // we LIE and store things as radians bwahaha
-                this.vm.modeData.putDouble("startAngle", this.facingRadians());
+                // Positive is clockwise looking down, same as yRot, so ROT 90 turns right
+                var angle = this.vm.modeData.getShort("angle");
+                this.vm.modeData.putFloat("targetYRot", this.getYRot() + angle);
             } else if (mode.equals(RoombaVM.MODE_SLEEP)) {
                 this.vm.mode = MODE_SLEEPING;
             }
@@ -93,29 +157,62 @@ public class EntityRoomba extends Entity implements ContainerEntity {
             else if (mode.equals(MODE_MOVING)) {
                 var startX = this.vm.modeData.getDouble("startX");
                 var startZ = this.vm.modeData.getDouble("startZ");
-                var dist = this.vm.modeData.getShort("distance") * 16d;
+                // pixels to blocks
+                var dist = this.vm.modeData.getShort("distance") / 16d;
 
                 var dx = this.getX() - startX;
                 var dz = this.getZ() - startZ;
-                if (dx * dx + dz * dz >= dist) {
+                var travelled = Math.sqrt(dx * dx + dz * dz);
+                if (travelled >= dist) {
                     // all done!
                     this.vm.mode = RoombaVM.MODE_EXECUTING;
                     this.vm.modeData = new CompoundTag();
                 } else {
-                    var movement = new Vec3(dx, 0, dz).normalize().scale(MOVEMENT_PER_TICK);
-                    this.move(MoverType.SELF, movement);
+                    var look = this.getLookAngle();
+                    var dir = new Vec3(look.x, 0, look.z).normalize();
+                    // don't overshoot
+                    var movement = dir.scale(Math.min(MOVEMENT_PER_TICK, dist - travelled));
+
+                    // Only trust the cache when we're sitting flush on top of a block, and check the cells
+                    // we're about to drive into every step so blocks placed mid-MOV are noticed
+                    if (this.level instanceof ServerLevel slevel && this.getY() == Mth.floor(this.getY())
+                        && OccupancyCache.get(slevel).isClear(slevel, this.getBoundingBox().move(movement))) {
+                        // Flat floor, nothing in the way; skip collision
+                        this.setPos(this.position().add(movement));
+                        this.horizontalCollision = false;
+                        var onPos = this.getOnPos();
+                        this.level.getBlockState(onPos).getBlock()
+                            .stepOn(this.level, onPos, this.level.getBlockState(onPos), this);
+                        this.tryCheckInsideBlocks();
+                    } else {
+                        this.move(MoverType.SELF, movement);
+                    }
+
+                    this.vacuum();
+                    this.markSwept();
+                    if (this.horizontalCollision) {
+                        // bonk
+                        this.depositInFront();
+                        this.vm.mode = RoombaVM.MODE_EXECUTING;
+                        this.vm.modeData = new CompoundTag();
+                    }
                 }
             } else if (mode.equals(MODE_TURNING)) {
-                var startAngle = this.vm.modeData.getDouble("startAngle");
-                var angle = this.facingRadians();
+                var target = this.vm.modeData.getFloat("targetYRot");
+                var left = target - this.getYRot();
 
-                if (Math.abs(startAngle - angle) < 0.0001) {
+                if (Math.abs(left) < 0.0001) {
                     // all done!
                     this.vm.mode = RoombaVM.MODE_EXECUTING;
                     this.vm.modeData = new CompoundTag();
                 } else {
-                    var dth = Mth.clamp(startAngle - angle, -TURNING_PER_TICK, TURNING_PER_TICK);
-                    this.turn(dth, 0);
+                    var maxTurn = (float) Math.toDegrees(TURNING_PER_TICK);
+                    if (Math.abs(left) <= maxTurn) {
+                        // land on it exactly, so a lap of turns doesn't drift
+                        this.setYRot(target);
+                    } else {
+                        this.setYRot(this.getYRot() + Math.copySign(maxTurn, left));
+                    }
                 }
             } else if (mode.equals(MODE_SLEEPING)) {
                 var time = this.vm.modeData.getShort("time");
@@ -131,7 +228,181 @@ public class EntityRoomba extends Entity implements ContainerEntity {
                 // something the VM should handle in any case
                 this.vm.tickInherent();
             }
+
+            if (this.vm.recorder != null) {
+                this.vm.recorder.endTick(this.vm);
+                if (this.vm.recorder.isDone()) {
+                    this.stopRecording();
+                }
+            }
+        }
+    }
+
+    /**
+     * Start writing down everything that happens to the VM for the next however many ticks, to replay later with
+     * {@link VMReplayer}. The trace gets saved to {@code roombas/traces} in the world folder when it's done, or
+     * when the roomba is removed or unloaded, whichever comes first. A recording already going gets saved first.
+     *
+     * @return whether there was a program to record
+     */
+    public boolean startRecording(int ticks) {
+        if (this.vm == null) {
+            return false;
         }
+        this.stopRecording();
+        this.vm.recorder = new VMRecorder(this.vm, ticks);
+        return true;
+    }
+
+    /**
+     * Save what's been recorded so far and stop recording.
+     *
+     * @return the trace that got saved, or null if we weren't recording
+     */
+    public @Nullable VMTrace stopRecording() {
+        if (this.vm == null || this.vm.recorder == null || !(this.level instanceof ServerLevel slevel)) {
+            return null;
+        }
+        var trace = this.vm.recorder.finish();
+        this.vm.recorder = null;
+
+        var dir = slevel.getServer().getWorldPath(LevelResource.ROOT).resolve("roombas/traces");
+        var file = dir.resolve(this.getStringUUID() + "-" + slevel.getGameTime() + ".dat");
+        var tag = trace.serialize();
+        // Disk is slow, keep it off the server thread
+        Util.ioPool().execute(() -> {
+            try {
+                Files.createDirectories(dir);
+                NbtIo.writeCompressed(tag, file.toFile());
+                RoombasMod.LOGGER.info("Saved roomba trace to {}", file);
+            } catch (IOException e) {
+                RoombasMod.LOGGER.error("Couldn't save roomba trace to {}", file, e);
+            }
+        });
+        return trace;
+    }
+
+    @Override
+    public void setRemoved(RemovalReason reason) {
+        // Killed, picked up or unloaded; don't lose what we recorded so far
+        this.stopRecording();
+        super.setRemoved(reason);
+    }
+
+    /**
+     * Suck up all the items we're on top of.
+     */
+    private void vacuum() {
+        var items = this.level.getEntitiesOfClass(ItemEntity.class, this.getBoundingBox(),
+            it -> it.isAlive() && !it.hasPickUpDelay());
+        for (var itemEntity : items) {
+            var stack = itemEntity.getItem();
+            var before = stack.getCount();
+            this.inventory.insert(stack);
+            if (stack.isEmpty()) {
+                itemEntity.discard();
+            } else if (stack.getCount() != before) {
+                // resync the count
+                itemEntity.setItem(stack.copy());
+            }
+        }
+    }
+
+    /**
+     * Record the cells we're on top of in the level's coverage map.
+     */
+    private void markSwept() {
+        if (!(this.level instanceof ServerLevel slevel)) {
+            return;
+        }
+        var coverage = RoombaCoverage.get(slevel);
+        var now = slevel.getGameTime();
+        var bb = this.getBoundingBox();
+        var y = this.getBlockY();
+        for (int x = Mth.floor(bb.minX); x <= Mth.floor(bb.maxX); x++) {
+            for (int z = Mth.floor(bb.minZ); z <= Mth.floor(bb.maxZ); z++) {
+                coverage.markSwept(new BlockPos(x, y, z), now);
+            }
+        }
+    }
+
+    /**
+     * Dump the inventory into whatever we just bumped into, if it's a container.
+     */
+    private void depositInFront() {
+        if (this.inventory.isEmpty()) {
+            return;
+        }
+        var look = this.getLookAngle();
+        var pos = new BlockPos(this.position().add(look.x * 0.5, 0.125, look.z * 0.5));
+        var target = HopperBlockEntity.getContainerAt(this.level, pos);
+        if (target != null) {
+            var side = Direction.getNearest(look.x, 0, look.z).getOpposite();
+            this.inventory.transferTo(target, side);
+        }
+    }
+
+    /**
+     * Fast-forward the VM through the ticks we missed, without touching the world.
+     * <p>
+     * Only register and jump logic runs, and sleeps are skipped over all at once. Anything that needs the world
+     * (see {@link RoombaVM#isCheckpoint}) stops the fast-forward, and the roomba picks up from there normally.
+     * This burns ticks at exactly the rate {@link EntityRoomba#tick} would.
+     * <p>
+     * The work comes out of the level's shared {@link CatchUpBudget}, so a base full of roombas loading at once
+     * gets spread over several ticks instead of all landing on one.
+     */
+    private void catchUp(ServerLevel slevel) {
+        if (this.vm == null || this.vm.instructions.isEmpty()) {
+            this.catchUpOwed = 0;
+            return;
+        }
+
+        var levelBudget = RoombaServerLevel.of(slevel).roombas$getCatchUpBudget();
+        var steps = levelBudget.take(slevel.getGameTime(), (int) Math.min(this.catchUpOwed, Integer.MAX_VALUE));
+        var owed = this.catchUpOwed;
+        while (owed > 0 && steps > 0) {
+            var mode = this.vm.mode;
+            if (mode.equals(RoombaVM.MODE_EXECUTING)) {
+                var instr = this.vm.peekInstruction();
+                if (instr == null || RoombaVM.isCheckpoint(instr.opcode())) {
+                    // Either nothing will ever run again, or we need the world
+                    owed = 0;
+                    break;
+                }
+                this.vm.execute();
+                owed--;
+            } else if (mode.equals(RoombaVM.MODE_SLEEP)) {
+                this.vm.mode = MODE_SLEEPING;
+                owed--;
+            } else if (mode.equals(MODE_SLEEPING)) {
+                var time = Math.max(this.vm.modeData.getShort("time"), 0);
+                var skip = (int) Math.min(time, owed);
+                time -= skip;
+                owed -= skip;
+                if (time <= 0 && owed > 0) {
+                    // all done!
+                    this.vm.mode = RoombaVM.MODE_EXECUTING;
+                    this.vm.modeData = new CompoundTag();
+                    owed--;
+                } else {
+                    this.vm.modeData.putShort("time", (short) time);
+                }
+            } else {
+                // Moving, turning, or some peripheral's business
+                owed = 0;
+                break;
+            }
+
+            steps--;
+
+            if (this.vm.recorder != null) {
+                this.vm.recorder.endTick(this.vm);
+            }
+        }
+
+        levelBudget.giveBack(steps);
+        this.catchUpOwed = owed;
     }
 
     @Override
@@ -141,21 +412,37 @@ public class EntityRoomba extends Entity implements ContainerEntity {
 
     @Override
     protected void addAdditionalSaveData(CompoundTag tag) {
-        saveInventory(tag, "inventory", this.inventory);
+        saveInventory(tag, "inventory", this.inventory.getStacks());
         saveInventory(tag, "punchcards", this.punchcards);
-        saveInventory(tag, "inventory", this.inventory);
+        saveInventory(tag, "peripherals", this.peripherals);
+
+        if (this.vm != null) {
+            tag.put("vm", this.vm.serialize());
+        }
+        tag.putLong("lastTickTime", this.lastTickTime);
+        tag.putLong("catchUpOwed", this.catchUpOwed);
     }
 
     @Override
     protected void readAdditionalSaveData(CompoundTag tag) {
         this.inventory.clear();
-        readInventory(tag, "inventory", this.inventory);
+        readInventory(tag, "inventory", this.inventory.getStacks());
+        this.inventory.markDirty();
 
         this.punchcards.clear();
         readInventory(tag, "punchcards", this.punchcards);
 
         this.peripherals.clear();
         readInventory(tag, "peripherals", this.peripherals);
+
+        if (tag.contains("vm", Tag.TAG_COMPOUND)) {
+            this.vm = new RoombaVMImpl();
+            this.vm.deserializeLoad(tag.getCompound("vm"));
+        } else {
+            this.vm = null;
+        }
+        this.lastTickTime = tag.contains("lastTickTime", Tag.TAG_LONG) ? tag.getLong("lastTickTime") : -1;
+        this.catchUpOwed = tag.getLong("catchUpOwed");
     }
 
     private static void saveInventory(CompoundTag tag, String key, NonNullList<ItemStack> src) {
@@ -175,7 +462,7 @@ public class EntityRoomba extends Entity implements ContainerEntity {
     }
 
     private static void readInventory(CompoundTag tag, String key, NonNullList<ItemStack> dest) {
-        var items = tag.getList("key", Tag.TAG_COMPOUND);
+        var items = tag.getList(key, Tag.TAG_COMPOUND);
         for (int i = 0; i < items.size(); ++i) {
             var itemTag = items.getCompound(i);
             int j = itemTag.getByte("Slot") & 255;
@@ -217,7 +504,9 @@ public class EntityRoomba extends Entity implements ContainerEntity {
     @Override
     public NonNullList<ItemStack> getItemStacks() {
         // No interacting with the non-inventory inventory
-        return this.inventory;
+        // Whoever asked for this is probably going to mess with it
+        this.inventory.markDirty();
+        return this.inventory.getStacks();
     }
 
     // Specifically clear the ContainerEntity stacks.
@@ -238,7 +527,9 @@ public class EntityRoomba extends Entity implements ContainerEntity {
 
     @Override
     public ItemStack removeItem(int i, int j) {
-        return ContainerHelper.removeItem(this.inventory, i, j);
+        var out = ContainerHelper.removeItem(this.inventory.getStacks(), i, j);
+        this.inventory.markDirty();
+        return out;
     }
 
     @Override
@@ -261,6 +552,8 @@ public class EntityRoomba extends Entity implements ContainerEntity {
     @Override
     public void setChanged() {
         // uhhhh
+        // someone might have changed a stack in-place
+        this.inventory.markDirty();
     }
 
     @Override
@@ -282,6 +575,19 @@ public class EntityRoomba extends Entity implements ContainerEntity {
     // endregion
 
     public class RoombaVMImpl extends RoombaVM {
+        public EntityRoomba getRoomba() {
+            return EntityRoomba.this;
+        }
+
+        @Nullable
+        @Override
+        public PeripheralScheduler getScheduler() {
+            if (EntityRoomba.this.level instanceof ServerLevel slevel) {
+                return RoombaServerLevel.of(slevel).roombas$getPeripheralScheduler();
+            }
+            return null;
+        }
+
         @Nullable
         @Override
         public Peripheral getPeripheral(short index) {
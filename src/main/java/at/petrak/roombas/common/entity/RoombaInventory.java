@@ -0,0 +1,231 @@
+package at.petrak.roombas.common.entity;
+
+import net.minecraft.core.Direction;
+import net.minecraft.core.NonNullList;
+import net.minecraft.world.Container;
+import net.minecraft.world.WorldlyContainer;
+import net.minecraft.world.item.Item;
+import net.minecraft.world.item.ItemStack;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The roomba's main inventory, plus an index of which slots hold what.
+ * <p>
+ * Slots are bucketed by item, and items with different tags share a bucket; there's only 27 slots so checking
+ * tags in a bucket is cheap. The index is rebuilt lazily if anyone pokes at the stacks directly (hoppers,
+ * {@link net.minecraft.world.ContainerHelper}, etc), so always call {@link RoombaInventory#markDirty} after that.
+ */
+public class RoombaInventory {
+    private final NonNullList<ItemStack> stacks;
+
+    private final Map<Item, BitSet> slotsByItem = new HashMap<>();
+    private final BitSet occupied;
+    // What each slot is filed under. Can't ask the stack, because an emptied stack says it's air
+    private final Item[] indexedAs;
+    private boolean dirty = false;
+
+    public RoombaInventory(int size) {
+        this.stacks = NonNullList.withSize(size, ItemStack.EMPTY);
+        this.occupied = new BitSet(size);
+        this.indexedAs = new Item[size];
+    }
+
+    /**
+     * The backing list. If you change anything in here, call {@link RoombaInventory#markDirty}.
+     */
+    public NonNullList<ItemStack> getStacks() {
+        return this.stacks;
+    }
+
+    public int size() {
+        return this.stacks.size();
+    }
+
+    public ItemStack get(int slot) {
+        return this.stacks.get(slot);
+    }
+
+    public void set(int slot, ItemStack stack) {
+        this.unindex(slot);
+        this.stacks.set(slot, stack);
+        this.index(slot);
+    }
+
+    public void clear() {
+        this.stacks.clear();
+        this.slotsByItem.clear();
+        this.occupied.clear();
+        Arrays.fill(this.indexedAs, null);
+        this.dirty = false;
+    }
+
+    public void markDirty() {
+        this.dirty = true;
+    }
+
+    public boolean isEmpty() {
+        this.refresh();
+        return this.occupied.isEmpty();
+    }
+
+    /**
+     * Put as much of the stack in as will fit, topping up matching stacks first.
+     * Mutates the given stack; whatever's left over in it didn't fit.
+     */
+    public void insert(ItemStack stack) {
+        if (stack.isEmpty()) {
+            return;
+        }
+        this.refresh();
+
+        var bucket = this.slotsByItem.get(stack.getItem());
+        if (bucket != null) {
+            for (int slot = bucket.nextSetBit(0); slot >= 0 && !stack.isEmpty(); slot = bucket.nextSetBit(slot + 1)) {
+                var here = this.stacks.get(slot);
+                if (ItemStack.isSameItemSameTags(here, stack)) {
+                    var moved = Math.min(here.getMaxStackSize() - here.getCount(), stack.getCount());
+                    if (moved > 0) {
+                        here.grow(moved);
+                        stack.shrink(moved);
+                    }
+                }
+            }
+        }
+
+        while (!stack.isEmpty()) {
+            var slot = this.occupied.nextClearBit(0);
+            if (slot >= this.stacks.size()) {
+                // we're full
+                return;
+            }
+            this.set(slot, stack.split(stack.getMaxStackSize()));
+        }
+    }
+
+    /**
+     * Shove as much as possible into the target in one pass over its slots.
+     * <p>
+     * First tops up the target's partial stacks from matching slots here, then fills the target's empty slots.
+     * Respects {@link Container#canPlaceItem} and, for sided containers, which slots face the given side.
+     *
+     * @return how many items got moved
+     */
+    public int transferTo(Container target, @Nullable Direction side) {
+        this.refresh();
+        if (this.occupied.isEmpty()) {
+            return 0;
+        }
+
+        int[] targetSlots;
+        if (target instanceof WorldlyContainer worldly && side != null) {
+            targetSlots = worldly.getSlotsForFace(side);
+        } else {
+            targetSlots = new int[target.getContainerSize()];
+            for (int i = 0; i < targetSlots.length; i++) {
+                targetSlots[i] = i;
+            }
+        }
+
+        int moved = 0;
+        var emptyTargets = new BitSet(target.getContainerSize());
+        for (int targetSlot : targetSlots) {
+            var there = target.getItem(targetSlot);
+            if (there.isEmpty()) {
+                emptyTargets.set(targetSlot);
+                continue;
+            }
+
+            var bucket = this.slotsByItem.get(there.getItem());
+            if (bucket == null || !canPlace(target, targetSlot, there, side)) {
+                continue;
+            }
+            var max = Math.min(there.getMaxStackSize(), target.getMaxStackSize());
+            for (int slot = bucket.nextSetBit(0); slot >= 0 && there.getCount() < max;
+                 slot = bucket.nextSetBit(slot + 1)) {
+                var here = this.stacks.get(slot);
+                if (ItemStack.isSameItemSameTags(here, there)) {
+                    var count = Math.min(max - there.getCount(), here.getCount());
+                    there.grow(count);
+                    here.shrink(count);
+                    moved += count;
+                    if (here.isEmpty()) {
+                        this.set(slot, ItemStack.EMPTY);
+                    }
+                }
+            }
+        }
+
+        int slot = this.occupied.nextSetBit(0);
+        for (int targetSlot = emptyTargets.nextSetBit(0); targetSlot >= 0 && slot >= 0;
+             targetSlot = emptyTargets.nextSetBit(targetSlot + 1)) {
+            // Find something that's allowed to go here
+            for (int trySlot = slot; trySlot >= 0; trySlot = this.occupied.nextSetBit(trySlot + 1)) {
+                var here = this.stacks.get(trySlot);
+                if (canPlace(target, targetSlot, here, side)) {
+                    var count = Math.min(here.getCount(), target.getMaxStackSize());
+                    target.setItem(targetSlot, here.split(count));
+                    moved += count;
+                    if (here.isEmpty()) {
+                        this.set(trySlot, ItemStack.EMPTY);
+                    }
+                    break;
+                }
+            }
+            slot = this.occupied.nextSetBit(0);
+        }
+
+        if (moved > 0) {
+            target.setChanged();
+        }
+        return moved;
+    }
+
+    private static boolean canPlace(Container target, int slot, ItemStack stack, @Nullable Direction side) {
+        if (!target.canPlaceItem(slot, stack)) {
+            return false;
+        }
+        return !(target instanceof WorldlyContainer worldly) || worldly.canPlaceItemThroughFace(slot, stack, side);
+    }
+
+    private void index(int slot) {
+        var stack = this.stacks.get(slot);
+        if (!stack.isEmpty()) {
+            this.occupied.set(slot);
+            this.indexedAs[slot] = stack.getItem();
+            this.slotsByItem.computeIfAbsent(stack.getItem(), it -> new BitSet(this.stacks.size())).set(slot);
+        }
+    }
+
+    private void unindex(int slot) {
+        var item = this.indexedAs[slot];
+        this.occupied.clear(slot);
+        this.indexedAs[slot] = null;
+        if (item != null) {
+            var bucket = this.slotsByItem.get(item);
+            if (bucket != null) {
+                bucket.clear(slot);
+                if (bucket.isEmpty()) {
+                    this.slotsByItem.remove(item);
+                }
+            }
+        }
+    }
+
+    private void refresh() {
+        if (!this.dirty) {
+            return;
+        }
+        this.slotsByItem.clear();
+        this.occupied.clear();
+        Arrays.fill(this.indexedAs, null);
+        for (int i = 0; i < this.stacks.size(); i++) {
+            this.index(i);
+        }
+        this.dirty = false;
+    }
+}
@@ -0,0 +1,66 @@
+package at.petrak.roombas.common.item;
+
+import at.petrak.roombas.common.entity.EntityRoomba;
+import at.petrak.roombas.common.world.RoombaCoverage;
+import at.petrak.roombas.vm.Register;
+import at.petrak.roombas.vm.RoombaVM;
+import net.minecraft.core.BlockPos;
+import net.minecraft.server.level.ServerLevel;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Checks whether the cell in front of the roomba was swept in the last `D` seconds, and puts 1 in `D` if it was
+ * and 0 if it wasn't.
+ */
+public class ItemCoverageSensor extends ItemPeripheral {
+    public ItemCoverageSensor(Properties properties) {
+        super(properties);
+    }
+
+    @Override
+    public boolean executePHL(RoombaVM roomba) {
+        return this.executePHLBatch(List.of(roomba))[0];
+    }
+
+    @Override
+    public boolean isBatched() {
+        return true;
+    }
+
+    @Override
+    public boolean[] executePHLBatch(List<RoombaVM> roombas) {
+        var out = new boolean[roombas.size()];
+        Arrays.fill(out, true);
+
+        // Batches almost always come from just one level, so only look the coverage map up when it changes
+        ServerLevel lastLevel = null;
+        RoombaCoverage coverage = null;
+        for (var roomba : roombas) {
+            if (!(roomba instanceof EntityRoomba.RoombaVMImpl impl)
+                || !(impl.getRoomba().level instanceof ServerLevel level)) {
+                continue;
+            }
+            if (level != lastLevel) {
+                lastLevel = level;
+                coverage = RoombaCoverage.get(level);
+            }
+
+            var entity = impl.getRoomba();
+            // Registers only go up to 999, so count in seconds instead of ticks
+            var window = Math.min(Math.max(roomba.registers.get(Register.D), 0) * 20, RoombaCoverage.MAX_AGE_TICKS);
+            var look = entity.getLookAngle();
+            var front = new BlockPos(entity.position().add(look.x, 0, look.z));
+
+            var swept = coverage.sweptWithin(front, level.getGameTime(), window);
+            roomba.registers.put(Register.D, (short) (swept ? 1 : 0));
+        }
+        return out;
+    }
+
+    @Override
+    public boolean tickMode(RoombaVM roomba) {
+        return false;
+    }
+}
@@ -0,0 +1,34 @@
+package at.petrak.roombas.common.lib;
+
+import at.petrak.roombas.api.RoombasModAPI;
+import at.petrak.roombas.common.entity.EntityRoomba;
+import com.mojang.brigadier.CommandDispatcher;
+import com.mojang.brigadier.arguments.IntegerArgumentType;
+import net.minecraft.commands.CommandSourceStack;
+import net.minecraft.commands.Commands;
+import net.minecraft.commands.arguments.EntityArgument;
+import net.minecraft.network.chat.Component;
+
+public class ModCommands {
+    public static void register(CommandDispatcher<CommandSourceStack> dispatcher) {
+        dispatcher.register(Commands.literal(RoombasModAPI.MOD_ID)
+            .requires(src -> src.hasPermission(Commands.LEVEL_GAMEMASTERS))
+            // Record what the roombas' VMs do for a while, for VMReplayer
+            .then(Commands.literal("trace")
+                .then(Commands.argument("targets", EntityArgument.entities())
+                    .then(Commands.argument("ticks", IntegerArgumentType.integer(1, 20 * 60 * 60))
+                        .executes(ctx -> {
+                            var ticks = IntegerArgumentType.getInteger(ctx, "ticks");
+                            int count = 0;
+                            for (var entity : EntityArgument.getEntities(ctx, "targets")) {
+                                if (entity instanceof EntityRoomba roomba && roomba.startRecording(ticks)) {
+                                    count++;
+                                }
+                            }
+                            ctx.getSource().sendSuccess(
+                                Component.literal("Tracing " + count + " roomba(s) for " + ticks + " ticks"),
+                                true);
+                            return count;
+                        })))));
+    }
+}
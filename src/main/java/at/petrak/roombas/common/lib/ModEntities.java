@@ -17,4 +17,8 @@ public class ModEntities {
             .dimensions(EntityDimensions.fixed(0.75f, 0.25f))
             .build()
     );
+
+    public static void init() {
+        // Just here to load the class
+    }
 }
@@ -1,5 +1,20 @@
 package at.petrak.roombas.common.lib;
 
+import at.petrak.roombas.common.item.ItemCoverageSensor;
+import net.minecraft.core.Registry;
+import net.minecraft.world.item.CreativeModeTab;
+import net.minecraft.world.item.Item;
+
+import static at.petrak.roombas.api.RoombasModAPI.modLoc;
+
 public class ModItems {
+    public static final ItemCoverageSensor COVERAGE_SENSOR = Registry.register(
+        Registry.ITEM,
+        modLoc("coverage_sensor"),
+        new ItemCoverageSensor(new Item.Properties().stacksTo(1).tab(CreativeModeTab.TAB_REDSTONE))
+    );
 
+    public static void init() {
+        // Just here to load the class
+    }
 }
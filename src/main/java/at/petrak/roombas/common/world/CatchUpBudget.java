@@ -0,0 +1,34 @@
+package at.petrak.roombas.common.world;
+
+/**
+ * How much offline catch-up work all the roombas in a level are allowed to do in one tick, combined.
+ * <p>
+ * A step is one go around the catch-up loop: one instruction, or one whole sleep. Roombas that don't get enough
+ * just keep catching up next tick.
+ */
+public class CatchUpBudget {
+    public static final int STEPS_PER_TICK = 20000;
+
+    private long tick = Long.MIN_VALUE;
+    private int remaining = 0;
+
+    /**
+     * Take up to `wanted` steps out of this tick's budget; returns how many you actually got.
+     */
+    public int take(long gameTime, int wanted) {
+        if (gameTime != this.tick) {
+            this.tick = gameTime;
+            this.remaining = STEPS_PER_TICK;
+        }
+        var got = Math.min(wanted, this.remaining);
+        this.remaining -= got;
+        return got;
+    }
+
+    /**
+     * Hand back steps you took but didn't use.
+     */
+    public void giveBack(int steps) {
+        this.remaining += steps;
+    }
+}
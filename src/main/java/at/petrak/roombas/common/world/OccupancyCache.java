@@ -0,0 +1,77 @@
+package at.petrak.roombas.common.world;
+
+import it.unimi.dsi.fastutil.longs.Long2ByteOpenHashMap;
+import net.minecraft.core.BlockPos;
+import net.minecraft.core.Direction;
+import net.minecraft.server.level.ServerLevel;
+import net.minecraft.util.Mth;
+import net.minecraft.world.phys.AABB;
+
+/**
+ * Per-level cache of which cells a roomba can drive straight through: air, with a sturdy floor underneath.
+ * <p>
+ * This lets MOV skip vanilla collision when it can tell nothing's in the way. Entries get thrown out whenever a
+ * block changes (see {@link at.petrak.roombas.mixin.LevelMixin}), and the whole thing gets dumped if it gets too
+ * big. Lives on the {@link ServerLevel} (see {@link RoombaServerLevel}) and is only touched from the server
+ * thread. Not saved; it's cheap to rebuild.
+ */
+public class OccupancyCache {
+    private static final byte UNKNOWN = 0;
+    private static final byte WALKABLE = 1;
+    private static final byte BLOCKED = 2;
+
+    private static final int MAX_CELLS = 1 << 16;
+
+    private final Long2ByteOpenHashMap cells = new Long2ByteOpenHashMap();
+
+    public static OccupancyCache get(ServerLevel level) {
+        return RoombaServerLevel.of(level).roombas$getOccupancyCache();
+    }
+
+    /**
+     * Forget about this block, and the cell above it (whose floor it is).
+     */
+    public void onBlockChanged(BlockPos pos) {
+        this.cells.remove(pos.asLong());
+        this.cells.remove(BlockPos.asLong(pos.getX(), pos.getY() + 1, pos.getZ()));
+    }
+
+    public boolean isWalkable(ServerLevel level, BlockPos pos) {
+        var key = pos.asLong();
+        var cached = this.cells.get(key);
+        if (cached != UNKNOWN) {
+            return cached == WALKABLE;
+        }
+
+        if (!level.isLoaded(pos)) {
+            // Don't remember this, it'll probably be something else once it loads
+            return false;
+        }
+        var below = pos.below();
+        var walkable = level.getBlockState(pos).isAir()
+            && level.getBlockState(below).isFaceSturdy(level, below, Direction.UP);
+
+        if (this.cells.size() >= MAX_CELLS) {
+            this.cells.clear();
+        }
+        this.cells.put(key, walkable ? WALKABLE : BLOCKED);
+        return walkable;
+    }
+
+    /**
+     * Can something sitting flush on the floor occupy this box without bumping into anything?
+     * Conservative: it may say no when the real answer is yes, but never the other way around.
+     */
+    public boolean isClear(ServerLevel level, AABB box) {
+        var y = Mth.floor(box.minY);
+        var cursor = new BlockPos.MutableBlockPos();
+        for (int x = Mth.floor(box.minX); x <= Mth.floor(box.maxX); x++) {
+            for (int z = Mth.floor(box.minZ); z <= Mth.floor(box.maxZ); z++) {
+                if (!this.isWalkable(level, cursor.set(x, y, z))) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+}
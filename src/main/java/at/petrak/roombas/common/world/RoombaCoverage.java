@@ -0,0 +1,157 @@
+package at.petrak.roombas.common.world;
+
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import net.minecraft.core.BlockPos;
+import net.minecraft.core.SectionPos;
+import net.minecraft.nbt.CompoundTag;
+import net.minecraft.nbt.ListTag;
+import net.minecraft.nbt.Tag;
+import net.minecraft.server.level.ServerLevel;
+import net.minecraft.world.level.saveddata.SavedData;
+
+import java.util.Arrays;
+
+/**
+ * Per-level record of which floor cells roombas have driven over, and when.
+ * <p>
+ * Stored in layers: one 16x16 grid of cells per chunk per exact block Y, so every floor gets its own cells, even
+ * two floors of a house that sit inside the same chunk section. Only layers a roomba has driven on exist, and each
+ * is one int timestamp per cell. Nobody can ask about anything older than {@link RoombaCoverage#MAX_AGE_TICKS}, so
+ * layers that haven't been swept in that long are dropped when saving, and only the cells that are still fresh get
+ * written out. {@code RoombaBenchmarks#coverageMemory} measures what this costs per thousand layers.
+ * <p>
+ * Timestamps are game time truncated to an int; comparisons are done with wrapping subtraction, so this is
+ * fine for any window shorter than a few years.
+ */
+public class RoombaCoverage extends SavedData {
+    public static final String DATA_NAME = "roombas_coverage";
+    // The sensor's window is D seconds, and registers stop at 999
+    public static final int MAX_AGE_TICKS = 999 * 20;
+
+    private final Long2ObjectOpenHashMap<Layer> layers = new Long2ObjectOpenHashMap<>();
+    // Latest game time we've heard about, to know what's stale when saving
+    private long now = 0;
+
+    public static RoombaCoverage get(ServerLevel level) {
+        return level.getDataStorage().computeIfAbsent(RoombaCoverage::load, RoombaCoverage::new, DATA_NAME);
+    }
+
+    public void markSwept(BlockPos pos, long gameTime) {
+        this.now = Math.max(this.now, gameTime);
+        var layer = this.layers.computeIfAbsent(layerKey(pos), it -> new Layer());
+        layer.mark(cellIndex(pos), stamp(gameTime));
+        this.setDirty();
+    }
+
+    /**
+     * Was the cell at this position swept in the last `ticks` ticks?
+     */
+    public boolean sweptWithin(BlockPos pos, long gameTime, int ticks) {
+        this.now = Math.max(this.now, gameTime);
+        var layer = this.layers.get(layerKey(pos));
+        if (layer == null) {
+            return false;
+        }
+        var time = layer.times[cellIndex(pos)];
+        if (time == Layer.NEVER) {
+            return false;
+        }
+        var age = stamp(gameTime) - time;
+        return age >= 0 && age <= ticks;
+    }
+
+    public int layerCount() {
+        return this.layers.size();
+    }
+
+    private static long layerKey(BlockPos pos) {
+        // Section-style packing, but with the block Y in the Y slot; it's got room for +-2048
+        return SectionPos.asLong(SectionPos.blockToSectionCoord(pos.getX()), pos.getY(),
+            SectionPos.blockToSectionCoord(pos.getZ()));
+    }
+
+    private static int cellIndex(BlockPos pos) {
+        return ((pos.getZ() & 15) << 4) | (pos.getX() & 15);
+    }
+
+    private static int stamp(long gameTime) {
+        var out = (int) gameTime;
+        // Don't collide with the "never" marker; being off by a tick doesn't matter
+        return out == Layer.NEVER ? out + 1 : out;
+    }
+
+    private boolean isStale(int time) {
+        return time == Layer.NEVER || stamp(this.now) - time > MAX_AGE_TICKS;
+    }
+
+    @Override
+    public CompoundTag save(CompoundTag tag) {
+        // Forget about everything too old to ask about
+        this.layers.values().removeIf(layer -> this.isStale(layer.latest));
+
+        var list = new ListTag();
+        var cells = new byte[Layer.CELLS];
+        var times = new int[Layer.CELLS];
+        for (var entry : this.layers.long2ObjectEntrySet()) {
+            var layer = entry.getValue();
+            int count = 0;
+            for (int i = 0; i < Layer.CELLS; i++) {
+                if (!this.isStale(layer.times[i])) {
+                    cells[count] = (byte) i;
+                    times[count] = layer.times[i];
+                    count++;
+                }
+            }
+
+            var layerTag = new CompoundTag();
+            layerTag.putLong("pos", entry.getLongKey());
+            layerTag.putByteArray("cells", Arrays.copyOf(cells, count));
+            layerTag.putIntArray("times", Arrays.copyOf(times, count));
+            list.add(layerTag);
+        }
+        tag.putLong("now", this.now);
+        tag.put("layers", list);
+        return tag;
+    }
+
+    public static RoombaCoverage load(CompoundTag tag) {
+        var out = new RoombaCoverage();
+        out.now = tag.getLong("now");
+        var list = tag.getList("layers", Tag.TAG_COMPOUND);
+        for (int i = 0; i < list.size(); i++) {
+            var layerTag = list.getCompound(i);
+            var cells = layerTag.getByteArray("cells");
+            var times = layerTag.getIntArray("times");
+            if (cells.length != times.length || cells.length == 0) {
+                // corrupted, or from some other version. just forget it
+                continue;
+            }
+            var layer = new Layer();
+            for (int j = 0; j < cells.length; j++) {
+                layer.mark(cells[j] & 0xFF, times[j]);
+            }
+            out.layers.put(layerTag.getLong("pos"), layer);
+        }
+        return out;
+    }
+
+    private static class Layer {
+        static final int CELLS = 16 * 16;
+        static final int NEVER = Integer.MIN_VALUE;
+
+        final int[] times = new int[CELLS];
+        // Newest timestamp in here, so whole layers can be thrown out at once
+        int latest = NEVER;
+
+        Layer() {
+            Arrays.fill(this.times, NEVER);
+        }
+
+        void mark(int idx, int time) {
+            this.times[idx] = time;
+            if (this.latest == NEVER || time - this.latest > 0) {
+                this.latest = time;
+            }
+        }
+    }
+}
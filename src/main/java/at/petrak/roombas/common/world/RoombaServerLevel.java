@@ -0,0 +1,22 @@
+package at.petrak.roombas.common.world;
+
+import at.petrak.roombas.vm.PeripheralScheduler;
+import net.minecraft.server.level.ServerLevel;
+
+/**
+ * Roomba bookkeeping hung off every {@link ServerLevel} by {@link at.petrak.roombas.mixin.ServerLevelMixin}.
+ */
+public interface RoombaServerLevel {
+    CatchUpBudget roombas$getCatchUpBudget();
+
+    OccupancyCache roombas$getOccupancyCache();
+
+    /**
+     * Flushed at the end of every level tick.
+     */
+    PeripheralScheduler roombas$getPeripheralScheduler();
+
+    static RoombaServerLevel of(ServerLevel level) {
+        return (RoombaServerLevel) level;
+    }
+}
@@ -0,0 +1,25 @@
+package at.petrak.roombas.mixin;
+
+import at.petrak.roombas.common.world.OccupancyCache;
+import net.minecraft.core.BlockPos;
+import net.minecraft.server.level.ServerLevel;
+import net.minecraft.world.level.Level;
+import net.minecraft.world.level.block.state.BlockState;
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.injection.At;
+import org.spongepowered.asm.mixin.injection.Inject;
+import org.spongepowered.asm.mixin.injection.callback.CallbackInfoReturnable;
+
+// Keep the roomba occupancy cache honest
+@Mixin(Level.class)
+public class LevelMixin {
+	@Inject(at = @At("RETURN"),
+		method = "setBlock(Lnet/minecraft/core/BlockPos;Lnet/minecraft/world/level/block/state/BlockState;II)Z")
+	private void roombas$invalidateOccupancy(BlockPos pos, BlockState state, int flags, int recursion,
+		CallbackInfoReturnable<Boolean> cir) {
+		// The cache only exists on the server; don't touch it from the client thread
+		if (cir.getReturnValueZ() && (Object) this instanceof ServerLevel slevel) {
+			OccupancyCache.get(slevel).onBlockChanged(pos);
+		}
+	}
+}
@@ -0,0 +1,34 @@
+package at.petrak.roombas.mixin;
+
+import at.petrak.roombas.common.world.CatchUpBudget;
+import at.petrak.roombas.common.world.OccupancyCache;
+import at.petrak.roombas.common.world.RoombaServerLevel;
+import at.petrak.roombas.vm.PeripheralScheduler;
+import net.minecraft.server.level.ServerLevel;
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.Unique;
+
+@Mixin(ServerLevel.class)
+public class ServerLevelMixin implements RoombaServerLevel {
+	@Unique
+	private final CatchUpBudget roombas$catchUpBudget = new CatchUpBudget();
+	@Unique
+	private final OccupancyCache roombas$occupancyCache = new OccupancyCache();
+	@Unique
+	private final PeripheralScheduler roombas$peripheralScheduler = new PeripheralScheduler();
+
+	@Override
+	public CatchUpBudget roombas$getCatchUpBudget() {
+		return this.roombas$catchUpBudget;
+	}
+
+	@Override
+	public OccupancyCache roombas$getOccupancyCache() {
+		return this.roombas$occupancyCache;
+	}
+
+	@Override
+	public PeripheralScheduler roombas$getPeripheralScheduler() {
+		return this.roombas$peripheralScheduler;
+	}
+}
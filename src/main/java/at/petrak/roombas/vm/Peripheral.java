@@ -1,5 +1,7 @@
 package at.petrak.roombas.vm;
 
+import java.util.List;
+
 public interface Peripheral {
     /**
      * Do whatever it is the peripheral does to the roomba.
@@ -13,4 +15,28 @@ public interface Peripheral {
      * Return true from this to indicate that this is the peripheral that handles it.
      */
     boolean tickMode(RoombaVM roomba);
+
+    /**
+     * Return true to have PHLs saved up and handed over all at once at the end of the tick, through
+     * {@link Peripheral#executePHLBatch}, instead of running {@link Peripheral#executePHL} on the spot.
+     * <p>
+     * Only works if the VM has a {@link PeripheralScheduler}; otherwise it falls back to executePHL.
+     */
+    default boolean isBatched() {
+        return false;
+    }
+
+    /**
+     * Do whatever it is the peripheral does to every roomba that PHL'd it this tick.
+     * <p>
+     * Return whether each roomba's IP should be incremented, in the same order as the list.
+     * By default this just calls {@link Peripheral#executePHL} on each of them.
+     */
+    default boolean[] executePHLBatch(List<RoombaVM> roombas) {
+        var out = new boolean[roombas.size()];
+        for (int i = 0; i < out.length; i++) {
+            out[i] = this.executePHL(roombas.get(i));
+        }
+        return out;
+    }
 }
@@ -0,0 +1,38 @@
+package at.petrak.roombas.vm;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Collects batched PHLs over a tick and hands each peripheral all of its roombas at once.
+ * <p>
+ * Whoever owns this needs to call {@link PeripheralScheduler#flush} once per tick, after all the VMs have ticked.
+ */
+public class PeripheralScheduler {
+    // Peripherals are usually items, so this is effectively keyed by peripheral type.
+    private final Map<Peripheral, List<RoombaVM>> pending = new LinkedHashMap<>();
+
+    public void enqueue(Peripheral peripheral, RoombaVM roomba) {
+        this.pending.computeIfAbsent(peripheral, it -> new ArrayList<>()).add(roomba);
+    }
+
+    public boolean isEmpty() {
+        return this.pending.isEmpty();
+    }
+
+    public void flush() {
+        if (this.pending.isEmpty()) {
+            return;
+        }
+        for (var entry : this.pending.entrySet()) {
+            var roombas = entry.getValue();
+            var incIPs = entry.getKey().executePHLBatch(roombas);
+            for (int i = 0; i < roombas.size(); i++) {
+                roombas.get(i).finishBatchedPHL(incIPs[i]);
+            }
+        }
+        this.pending.clear();
+    }
+}
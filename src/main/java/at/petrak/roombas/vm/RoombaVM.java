@@ -25,6 +25,10 @@ public abstract class RoombaVM {
     public static final ResourceLocation MODE_MOVE = modLoc("vm/move");
     public static final ResourceLocation MODE_TURN = modLoc("vm/turn");
     public static final ResourceLocation MODE_SLEEP = modLoc("vm/sleep");
+    /**
+     * Waiting for a {@link PeripheralScheduler} to run a batched PHL.
+     */
+    public static final ResourceLocation MODE_PERIPHERAL_WAIT = modLoc("vm/peripheral_wait");
 
     public byte ip = 0;
     public byte cardIdx = 0;
@@ -38,7 +42,7 @@ public abstract class RoombaVM {
      */
     public List<List<Instruction>> instructions = new ArrayList<>();
 
-    public EnumMap<Register, Short> registers;
+    public EnumMap<Register, Short> registers = new EnumMap<>(Register.class);
 
     /**
      * The roomba VM itself defines its own modes, and it also can get modes set
@@ -49,9 +53,21 @@ public abstract class RoombaVM {
     public ResourceLocation mode = MODE_EXECUTING;
     public CompoundTag modeData = new CompoundTag();
 
+    /**
+     * If this isn't null, everything coming into the VM from outside gets written down here.
+     */
+    public @Nullable VMRecorder recorder = null;
+
     public abstract @Nullable
     Peripheral getPeripheral(short index);
 
+    /**
+     * Where batched PHLs go. If this is null, batched peripherals get run one at a time instead.
+     */
+    public @Nullable PeripheralScheduler getScheduler() {
+        return null;
+    }
+
     /**
      * Tick the state. If the mode is `roombas:executing`, execute the instructions,
      * otherwise passthru to peripherals.
@@ -59,6 +75,15 @@ public abstract class RoombaVM {
     public void tickInherent() {
         if (this.mode.equals(MODE_EXECUTING)) {
             this.execute();
+        } else if (this.mode.equals(MODE_PERIPHERAL_WAIT)) {
+            // The scheduler flushes at the end of every tick, so if we see this we got orphaned
+            // (probably saved and reloaded mid-PHL). The IP still points at the PHL, so just try again.
+            this.mode = MODE_EXECUTING;
+            this.modeData = new CompoundTag();
+            if (this.recorder != null) {
+                this.recorder.recordExternal(this);
+            }
+            this.execute();
         } else {
             for (short i = (short) 0; i < MAX_PERIPHERAL_COUNT; i++) {
                 var perph = this.getPeripheral(i);
@@ -73,9 +98,10 @@ public abstract class RoombaVM {
     }
 
     /**
-     * Execute one instruction!
+     * The instruction that {@link RoombaVM#execute} would run next, after skipping the ones with non-matching
+     * flags. Null if all of them would be skipped.
      */
-    public void execute() {
+    public @Nullable Instruction peekInstruction() {
         if (this.cardIdx >= this.instructions.size()) {
             this.cardIdx = 0;
         }
@@ -83,18 +109,36 @@ public abstract class RoombaVM {
 
         // Skip instrs with non-matching flags
         var cRegi = this.registers.get(Register.C);
-        Instruction instr = null;
         for (int dip = 0; dip < card.size(); dip++) {
             var tryIP = (this.ip + dip) % card.size();
             var tryInstr = card.get(tryIP);
             ConditionalFlag flag = tryInstr.flag();
             if (flag == null || (flag == ConditionalFlag.EQU && cRegi == 0)
                 || (flag == ConditionalFlag.NEG && cRegi < 0) || (flag == ConditionalFlag.POS && cRegi > 0)) {
-                instr = tryInstr;
-                break;
+                return tryInstr;
             }
         }
+        return null;
+    }
+
+    /**
+     * Whether the opcode needs the world (or at least something outside the VM) to run.
+     * <p>
+     * Everything else is pure register and jump logic, so it's safe to run when the roomba's chunk isn't around.
+     */
+    public static boolean isCheckpoint(Opcode opcode) {
+        return opcode == Opcode.MOV || opcode == Opcode.ROT || opcode == Opcode.PHL;
+    }
+
+    /**
+     * Execute one instruction!
+     */
+    public void execute() {
+        if (this.recorder != null) {
+            this.recorder.markExecuted();
+        }
 
+        var instr = this.peekInstruction();
         if (instr == null) {
             // All the conditions failed! Wow!
             return;
@@ -109,6 +153,7 @@ public abstract class RoombaVM {
             throw new IllegalStateException();
         }
 
+        var card = this.instructions.get(this.cardIdx);
         boolean incIP = true;
 
         switch (instr.opcode()) {
@@ -187,7 +232,19 @@ public abstract class RoombaVM {
             case PHL -> {
                 var phl = this.getPeripheral(arg);
                 if (phl != null) {
-                    incIP = phl.executePHL(this);
+                    var scheduler = this.getScheduler();
+                    if (phl.isBatched() && scheduler != null) {
+                        // Hang until the scheduler gets to it
+                        scheduler.enqueue(phl, this);
+                        this.mode = MODE_PERIPHERAL_WAIT;
+                        this.modeData = new CompoundTag();
+                        incIP = false;
+                    } else {
+                        incIP = phl.executePHL(this);
+                    }
+                    if (this.recorder != null) {
+                        this.recorder.recordPeripheral(this, arg, incIP);
+                    }
                 }
             }
             case SLP -> {
@@ -200,8 +257,30 @@ public abstract class RoombaVM {
         if (incIP) {
             this.ip++;
         }
+        this.wrapIP();
+    }
+
+    /**
+     * Called by the {@link PeripheralScheduler} once a batched PHL is done.
+     */
+    public void finishBatchedPHL(boolean incIP) {
+        // The peripheral might have put us in some other mode, so only leave it if we're still waiting
+        if (this.mode.equals(MODE_PERIPHERAL_WAIT)) {
+            this.mode = MODE_EXECUTING;
+            this.modeData = new CompoundTag();
+        }
+        if (incIP) {
+            this.ip++;
+        }
+        this.wrapIP();
 
-        if (this.cardIdx > this.instructions.size()) {
+        if (this.recorder != null) {
+            this.recorder.recordExternal(this);
+        }
+    }
+
+    private void wrapIP() {
+        if (this.cardIdx >= this.instructions.size()) {
             this.cardIdx = 0;
         }
         this.ip = (byte) Mth.positiveModulo(this.ip, this.instructions.get(this.cardIdx).size());
@@ -215,10 +294,7 @@ public abstract class RoombaVM {
      * The implementor is responsible for serializing peripherals.
      */
     public CompoundTag serialize() {
-        var tag = new CompoundTag();
-
-        tag.putByte("ip", this.ip);
-        tag.putByte("cardIdx", this.cardIdx);
+        var tag = this.serializeState();
 
         var cards = new ListTag();
         for (var instrs : this.instructions) {
@@ -234,6 +310,18 @@ public abstract class RoombaVM {
         }
         tag.put("cards", cards);
 
+        return tag;
+    }
+
+    /**
+     * Everything that can change while running: the IP, registers and mode, but not the program.
+     */
+    public CompoundTag serializeState() {
+        var tag = new CompoundTag();
+
+        tag.putByte("ip", this.ip);
+        tag.putByte("cardIdx", this.cardIdx);
+
         var regis = new CompoundTag();
         for (var regi : Register.values()) {
             if (this.registers.containsKey(regi)) {
@@ -245,7 +333,7 @@ public abstract class RoombaVM {
         tag.put("registers", regis);
 
         tag.putString("mode", this.mode.toString());
-        tag.putString("modeData", this.modeData.toString());
+        tag.put("modeData", this.modeData.copy());
 
         return tag;
     }
@@ -254,9 +342,6 @@ public abstract class RoombaVM {
      * Load and mutate self from the tag
      */
     public void deserializeLoad(CompoundTag tag) {
-        this.ip = tag.getByte("ip");
-        this.cardIdx = tag.getByte("cardIdx");
-
         this.instructions.clear();
         var cardTag = tag.getList("cards", Tag.TAG_LIST);
         for (Tag subtagAny : cardTag) {
@@ -269,6 +354,16 @@ public abstract class RoombaVM {
             this.instructions.add(instrs);
         }
 
+        this.deserializeState(tag);
+    }
+
+    /**
+     * Load just the stuff from {@link RoombaVM#serializeState}, leaving the program alone.
+     */
+    public void deserializeState(CompoundTag tag) {
+        this.ip = tag.getByte("ip");
+        this.cardIdx = tag.getByte("cardIdx");
+
         this.registers.clear();
         var regiTag = tag.getCompound("registers");
         for (Register regi : Register.values()) {
@@ -280,6 +375,6 @@ public abstract class RoombaVM {
         }
 
         this.mode = new ResourceLocation(tag.getString("mode"));
-        this.modeData = tag.getCompound("modeData");
+        this.modeData = tag.getCompound("modeData").copy();
     }
 }
@@ -0,0 +1,98 @@
+package at.petrak.roombas.vm;
+
+import net.minecraft.nbt.CompoundTag;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Writes down everything coming into a VM from outside, so the run can be replayed later.
+ * <p>
+ * Hook it up by setting {@link RoombaVM#recorder}; the VM reports its own PHLs, and the implementor needs to call
+ * {@link VMRecorder#endTick} at the end of every tick, and {@link VMRecorder#recordExternal} whenever it messes
+ * with the VM some other time.
+ * <p>
+ * Ticks where the VM doesn't run an instruction get squashed together: however long a sleep or move takes, and
+ * however many times its mode data changes along the way, it's written down as one run of idle ticks plus the
+ * state the VM was left in. The in-between states can't affect any instruction, so replays still line up.
+ */
+public class VMRecorder {
+    private final CompoundTag initial;
+    private final List<VMTrace.Event> events = new ArrayList<>();
+    // -1 for forever
+    private int ticksLeft;
+
+    private CompoundTag lastState;
+    private boolean executed = false;
+
+    // Idle ticks and outside changes we haven't written down yet
+    private int pendingIdle = 0;
+    private @Nullable CompoundTag pendingState = null;
+
+    public VMRecorder(RoombaVM vm, int ticks) {
+        this.initial = vm.serialize();
+        this.lastState = vm.serializeState();
+        this.ticksLeft = ticks;
+    }
+
+    void markExecuted() {
+        this.executed = true;
+    }
+
+    void recordPeripheral(RoombaVM vm, short slot, boolean incIP) {
+        this.flushPending();
+        this.lastState = vm.serializeState();
+        this.events.add(new VMTrace.PeripheralCall(slot, incIP, this.lastState));
+    }
+
+    /**
+     * Note the VM's state if it changed since we last looked.
+     */
+    public void recordExternal(RoombaVM vm) {
+        var state = vm.serializeState();
+        if (!state.equals(this.lastState)) {
+            this.pendingState = state;
+            this.lastState = state;
+        }
+    }
+
+    public void endTick(RoombaVM vm) {
+        var state = vm.serializeState();
+        if (this.executed) {
+            this.flushPending();
+            this.events.add(new VMTrace.Executed(state.hashCode()));
+        } else {
+            this.pendingIdle++;
+            if (!state.equals(this.lastState)) {
+                this.pendingState = state;
+            }
+        }
+        this.lastState = state;
+        this.executed = false;
+
+        if (this.ticksLeft > 0) {
+            this.ticksLeft--;
+        }
+    }
+
+    public boolean isDone() {
+        return this.ticksLeft == 0;
+    }
+
+    public VMTrace finish() {
+        this.flushPending();
+        return new VMTrace(this.initial, List.copyOf(this.events));
+    }
+
+    private void flushPending() {
+        if (this.pendingIdle > 0) {
+            this.events.add(new VMTrace.Idle(this.pendingIdle));
+            this.pendingIdle = 0;
+        }
+        if (this.pendingState != null) {
+            this.events.add(new VMTrace.External(this.pendingState));
+            this.pendingState = null;
+        }
+    }
+}
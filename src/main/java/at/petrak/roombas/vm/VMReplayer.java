@@ -0,0 +1,90 @@
+package at.petrak.roombas.vm;
+
+import javax.annotation.Nullable;
+import java.util.List;
+
+/**
+ * Runs a {@link VMTrace} again with no world around, feeding it the recorded inputs.
+ * <p>
+ * {@code ./gradlew replayTraces --args="<trace files>"} replays trace files from the command line and times them.
+ */
+public class VMReplayer {
+    /**
+     * @param divergedAt index of the first event the replay didn't agree with, or -1 if it all matched
+     */
+    public record Result(int instructions, int divergedAt, long nanos) {
+        public boolean matched() {
+            return this.divergedAt < 0;
+        }
+    }
+
+    /**
+     * Replay the trace. If `verify` is set, the VM's state is checked against the recording after every
+     * instruction, and the replay stops at the first mismatch; that costs a serialization per instruction,
+     * so turn it off for timing.
+     */
+    public static Result replay(VMTrace trace, boolean verify) {
+        var events = trace.events();
+        var vm = new ReplayVM(events);
+        vm.deserializeLoad(trace.initial());
+
+        int instructions = 0;
+        var start = System.nanoTime();
+        while (vm.cursor < events.size()) {
+            var event = events.get(vm.cursor);
+            if (event instanceof VMTrace.External ext) {
+                vm.deserializeState(ext.state());
+                vm.cursor++;
+            } else if (event instanceof VMTrace.Idle) {
+                vm.cursor++;
+            } else {
+                // Executed, or a PHL that's about to happen in this tick's instruction
+                var tickStart = vm.cursor;
+                vm.execute();
+                instructions++;
+
+                if (vm.cursor >= events.size() || !(events.get(vm.cursor) instanceof VMTrace.Executed ex)
+                    || (verify && ex.stateHash() != vm.serializeState().hashCode())) {
+                    return new Result(instructions, tickStart, System.nanoTime() - start);
+                }
+                vm.cursor++;
+            }
+        }
+        return new Result(instructions, -1, System.nanoTime() - start);
+    }
+
+    private static class ReplayVM extends RoombaVM {
+        private final List<VMTrace.Event> events;
+        private int cursor = 0;
+
+        private ReplayVM(List<VMTrace.Event> events) {
+            this.events = events;
+        }
+
+        @Nullable
+        @Override
+        public Peripheral getPeripheral(short index) {
+            // There's only a peripheral there if the recording says one got used
+            if (this.cursor < this.events.size() && this.events.get(this.cursor) instanceof VMTrace.PeripheralCall phl
+                && phl.slot() == index) {
+                return new RecordedPeripheral();
+            }
+            return null;
+        }
+
+        private class RecordedPeripheral implements Peripheral {
+            @Override
+            public boolean executePHL(RoombaVM roomba) {
+                var phl = (VMTrace.PeripheralCall) ReplayVM.this.events.get(ReplayVM.this.cursor);
+                ReplayVM.this.cursor++;
+                roomba.deserializeState(phl.state());
+                return phl.incIP();
+            }
+
+            @Override
+            public boolean tickMode(RoombaVM roomba) {
+                return false;
+            }
+        }
+    }
+}
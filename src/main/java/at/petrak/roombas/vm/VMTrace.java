@@ -0,0 +1,89 @@
+package at.petrak.roombas.vm;
+
+import net.minecraft.nbt.CompoundTag;
+import net.minecraft.nbt.ListTag;
+import net.minecraft.nbt.Tag;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A recording of a VM run: the VM as it started, and everything that happened to it from outside afterwards.
+ * That's enough for {@link VMReplayer} to run it again without a world.
+ */
+public record VMTrace(CompoundTag initial, List<Event> events) {
+    public sealed interface Event {
+    }
+
+    /**
+     * The VM ran an instruction by itself this tick. The hash of its state afterwards is there to check against.
+     */
+    public record Executed(int stateHash) implements Event {
+    }
+
+    /**
+     * This many ticks in a row went by without the VM running anything. If anything changed it in the meantime,
+     * an {@link External} with where it ended up comes right after.
+     */
+    public record Idle(int ticks) implements Event {
+    }
+
+    /**
+     * Something outside the VM changed it, like a mode finishing or a peripheral's mode ticking.
+     */
+    public record External(CompoundTag state) implements Event {
+    }
+
+    /**
+     * A PHL to this slot left the VM in this state and returned this.
+     */
+    public record PeripheralCall(short slot, boolean incIP, CompoundTag state) implements Event {
+    }
+
+    public CompoundTag serialize() {
+        var tag = new CompoundTag();
+        tag.put("initial", this.initial);
+
+        var list = new ListTag();
+        for (var event : this.events) {
+            var eventTag = new CompoundTag();
+            if (event instanceof Executed ex) {
+                eventTag.putString("type", "executed");
+                eventTag.putInt("hash", ex.stateHash);
+            } else if (event instanceof Idle idle) {
+                eventTag.putString("type", "idle");
+                eventTag.putInt("ticks", idle.ticks);
+            } else if (event instanceof External ext) {
+                eventTag.putString("type", "external");
+                eventTag.put("state", ext.state);
+            } else if (event instanceof PeripheralCall phl) {
+                eventTag.putString("type", "peripheral");
+                eventTag.putShort("slot", phl.slot);
+                eventTag.putBoolean("incIP", phl.incIP);
+                eventTag.put("state", phl.state);
+            }
+            list.add(eventTag);
+        }
+        tag.put("events", list);
+
+        return tag;
+    }
+
+    public static VMTrace deserialize(CompoundTag tag) {
+        var events = new ArrayList<Event>();
+        var list = tag.getList("events", Tag.TAG_COMPOUND);
+        for (int i = 0; i < list.size(); i++) {
+            var eventTag = list.getCompound(i);
+            var event = switch (eventTag.getString("type")) {
+                case "executed" -> new Executed(eventTag.getInt("hash"));
+                case "idle" -> new Idle(eventTag.getInt("ticks"));
+                case "external" -> new External(eventTag.getCompound("state"));
+                case "peripheral" -> new PeripheralCall(eventTag.getShort("slot"), eventTag.getBoolean("incIP"),
+                    eventTag.getCompound("state"));
+                default -> throw new IllegalArgumentException("unknown trace event " + eventTag.getString("type"));
+            };
+            events.add(event);
+        }
+        return new VMTrace(tag.getCompound("initial"), events);
+    }
+}